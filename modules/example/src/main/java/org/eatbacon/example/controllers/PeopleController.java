@@ -1,17 +1,34 @@
 package org.eatbacon.example.controllers;
 
+import com.fasterxml.jackson.databind.ObjectWriter;
 import io.swagger.inflector.models.ApiError;
 import io.swagger.inflector.models.RequestContext;
 import io.swagger.inflector.models.ResponseContext;
 
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
 
 import io.swagger.inflector.utils.ApiException;
+import io.swagger.util.Json;
+import org.eatbacon.dao.Page;
 import org.eatbacon.example.dao.PersonDao;
 import org.eatbacon.example.models.Person;
 import org.glassfish.jersey.media.multipart.FormDataContentDisposition;
 
 public class PeopleController {
+    static final String NDJSON = "application/x-ndjson";
+    static final int DEFAULT_PAGE_SIZE = 100;
+    static final int MAX_PAGE_SIZE = 1000;
+
+    private static final ObjectWriter WRITER = Json.mapper().writer();
+
+    /**
+     * Reads one page of people, continuing after the previous page
+     */
+    private interface PageReader {
+        Page<Person> read(int limit, String continuation);
+    }
+
     public ResponseContext findById(RequestContext request, String id) {
         Person person = PersonDao.getInstance().findById(id);
         if(person == null) {
@@ -33,5 +50,48 @@ public class PeopleController {
                     .message("unable to add person"));
         }
     }
-}
 
+    public ResponseContext listPeople(RequestContext request, Integer pageSize) {
+        return streamPeople(pageSize, (limit, continuation) -> PersonDao.getInstance().findAll(limit, continuation));
+    }
+
+    public ResponseContext searchPeople(RequestContext request, String lastName, String zip, Integer pageSize) {
+        if((lastName == null) == (zip == null)) {
+            throw new ApiException(new ApiError()
+                    .code(400)
+                    .message("search by either lastName or zip"));
+        }
+        PersonDao dao = PersonDao.getInstance();
+        return streamPeople(pageSize, lastName != null
+                ? (limit, continuation) -> dao.findByLastName(lastName, limit, continuation)
+                : (limit, continuation) -> dao.findByZip(zip, limit, continuation));
+    }
+
+    /**
+     * Writes people as newline-delimited JSON, one page at a time. Each page is a single range read, written
+     * and flushed before the next one is read, so a slow client holds up the reads instead of having pages
+     * pile up in memory
+     */
+    private ResponseContext streamPeople(Integer pageSize, PageReader reader) {
+        int limit = pageSize == null ? DEFAULT_PAGE_SIZE : pageSize;
+        if(limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new ApiException(new ApiError()
+                    .code(400)
+                    .message(String.format("pageSize must be between 1 and %d", MAX_PAGE_SIZE)));
+        }
+
+        StreamingOutput output = out -> {
+            String continuation = null;
+            do {
+                Page<Person> page = reader.read(limit, continuation);
+                for(Person person : page.getItems()) {
+                    out.write(WRITER.writeValueAsBytes(person));
+                    out.write('\n');
+                }
+                out.flush();
+                continuation = page.getContinuation();
+            } while(continuation != null);
+        };
+        return new ResponseContext().contentType(NDJSON).entity(output);
+    }
+}
@@ -2,9 +2,12 @@ package org.eatbacon.example.dao;
 
 
 import org.eatbacon.dao.AbstractDao;
+import org.eatbacon.dao.Page;
 import org.eatbacon.example.models.Person;
 import org.eatbacon.query.Filters;
+import org.eatbacon.query.Index;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
 
@@ -15,6 +18,14 @@ public class PersonDao extends AbstractDao<Person> {
         return INSTANCE;
     }
 
+    // searches by last name and zip read the index instead of scanning everyone
+    @Override
+    protected List<Index> getIndexes() {
+        return Arrays.asList(
+                new Index("lastName"),
+                new Index("address", "zip"));
+    }
+
     @Override
     protected Class<?> getObjectClass() {
         return Person.class;
@@ -41,6 +52,18 @@ public class PersonDao extends AbstractDao<Person> {
         return super.find(Filters.eq("lastName", name));
     }
 
+    /**
+     * Finds up to `limit` people with a last name, starting after the continuation of a previous page
+     *
+     * @param name
+     * @param limit
+     * @param continuation token from the previous page, or null for the first page
+     * @return
+     */
+    public Page<Person> findByLastName(String name, int limit, String continuation) {
+        return super.find(Filters.eq("lastName", name), limit, continuation);
+    }
+
     /**
      * Looks into the address field of the Person object, if exists, and does a case-sensitive match
      *
@@ -57,4 +80,16 @@ public class PersonDao extends AbstractDao<Person> {
     public List<Person> findByZip(String zip) {
         return super.find(Filters.eq("address", "zip", zip));
     }
+
+    /**
+     * Finds up to `limit` people in a zip code, starting after the continuation of a previous page
+     *
+     * @param zip
+     * @param limit
+     * @param continuation token from the previous page, or null for the first page
+     * @return
+     */
+    public Page<Person> findByZip(String zip, int limit, String continuation) {
+        return super.find(Filters.eq("address", "zip", zip), limit, continuation);
+    }
 }
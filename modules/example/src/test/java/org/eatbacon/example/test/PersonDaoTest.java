@@ -1,11 +1,14 @@
 package org.eatbacon.example.test;
 
+import org.eatbacon.dao.Page;
 import org.eatbacon.example.dao.PersonDao;
 import org.eatbacon.example.models.Address;
 import org.eatbacon.example.models.Person;
 import org.testng.annotations.Test;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 import static org.testng.Assert.assertEquals;
@@ -51,4 +54,24 @@ public class PersonDaoTest {
 
         assertTrue(peopleInCalifornia.size() > 0);
     }
+
+    @Test
+    public void testFindByLastNamePaged() {
+        for(int i = 0; i < 5; i++) {
+            PersonDao.getInstance().insert(new Person()
+                    .firstName("Page" + i)
+                    .lastName("Paged"));
+        }
+
+        Set<UUID> ids = new HashSet<>();
+        String continuation = null;
+        do {
+            Page<Person> page = PersonDao.getInstance().findByLastName("Paged", 2, continuation);
+            assertTrue(page.getItems().size() <= 2);
+            page.getItems().forEach(person -> ids.add(person.getId()));
+            continuation = page.getContinuation();
+        } while(continuation != null);
+
+        assertEquals(ids.size(), PersonDao.getInstance().findByLastName("Paged").size());
+    }
 }
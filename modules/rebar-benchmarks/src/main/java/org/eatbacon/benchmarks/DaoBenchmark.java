@@ -0,0 +1,76 @@
+package org.eatbacon.benchmarks;
+
+import org.eatbacon.benchmarks.dao.InMemoryDao;
+import org.eatbacon.benchmarks.dao.MyModelDao;
+import org.eatbacon.benchmarks.dao.PersonDao;
+import org.eatbacon.query.Filters;
+import org.eatbacon.query.Index;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads through a DAO of `count` documents held in memory: finds on an indexed and an unindexed path, each
+ * matching a sixth of the documents, and decoding every document with `getAll`
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DaoBenchmark {
+    // large documents are measured by the codec benchmark, a DAO of them takes minutes to load
+    @Param({"person", "myModel-small"})
+    public String shape;
+
+    @Param({"1000", "10000"})
+    public int count;
+
+    private InMemoryDao<Object> dao;
+    private String nameField;
+    private int next;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        nameField = Documents.getNameField(shape);
+        dao = (InMemoryDao<Object>) ("person".equals(shape) ? PersonDao.getInstance() : MyModelDao.getInstance());
+
+        List<Object> documents = new ArrayList<>(count);
+        for(int i = 0; i < count; i++) {
+            documents.add(Documents.create(shape, i));
+        }
+        dao.insertAll(documents);
+
+        // measure the indexed finds once the index is readable
+        dao.ensureIndex(new Index(nameField)).join();
+    }
+
+    @Benchmark
+    public List<Object> findIndexed() {
+        return dao.find(Filters.eq(nameField, Documents.NAMES[next++ % Documents.NAMES.length]));
+    }
+
+    @Benchmark
+    public List<Object> findUnindexed() {
+        return dao.find(Filters.eq("address", "state", Documents.STATES[next++ % Documents.STATES.length]));
+    }
+
+    @Benchmark
+    public List<Object> getAll() {
+        return dao.getAll();
+    }
+}
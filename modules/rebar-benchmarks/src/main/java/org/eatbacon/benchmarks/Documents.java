@@ -0,0 +1,108 @@
+package org.eatbacon.benchmarks;
+
+import org.eatbacon.benchmarks.models.Person;
+import org.eatbacon.test.impl.models.Address;
+import org.eatbacon.test.impl.models.MyModel;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Builds the documents the benchmarks run on. The shapes are
+ *
+ * * `person`: a `Person`, as stored by the example app. The app is a war, so its model is repeated here
+ * * `myModel-small` and `myModel-large`: a `MyModel` of the tests with 4 or 512 `childNames`
+ * * `nested-4` and `nested-8`: a Map with the fields of a `MyModel` on each of 4 or 8 levels, each level holding
+ * the next one as `child`
+ */
+public class Documents {
+    public static final String[] NAMES = {"Tony", "Fred", "Jane", "Mia", "Omar", "Li"};
+    public static final String[] STATES = {"CA", "NV", "OR", "WA", "NY", "TX"};
+
+    public static Object create(String shape, int i) {
+        switch (shape) {
+            case "person":
+                return person(i);
+            case "myModel-small":
+                return myModel(i, 4);
+            case "myModel-large":
+                return myModel(i, 512);
+            case "nested-4":
+                return nested(i, 4);
+            case "nested-8":
+                return nested(i, 8);
+            default:
+                throw new IllegalArgumentException("unknown shape " + shape);
+        }
+    }
+
+    // the top-level field holding the name of a document of the shape
+    public static String getNameField(String shape) {
+        return "person".equals(shape) ? "lastName" : "name";
+    }
+
+    public static Person person(int i) {
+        return new Person()
+                .id(new UUID(0, i))
+                .firstName(NAMES[(i / NAMES.length) % NAMES.length])
+                .lastName(NAMES[i % NAMES.length])
+                .gender(i % 2 == 0 ? "female" : "male")
+                .address(address(i));
+    }
+
+    public static MyModel myModel(int i, int children) {
+        List<Integer> childNames = new ArrayList<>(children);
+        for(int c = 0; c < children; c++) {
+            childNames.add(i + c);
+        }
+        return new MyModel()
+                .id("model-" + i)
+                .name(NAMES[i % NAMES.length])
+                .createdAt(new Date(1500000000000L + i))
+                .address(address(i))
+                .childNames(childNames);
+    }
+
+    public static Map<Object, Object> nested(int i, int depth) {
+        Map<Object, Object> doc = null;
+        for(int level = depth; level > 0; level--) {
+            Map<Object, Object> parent = new LinkedHashMap<>();
+            parent.put("name", NAMES[(i + level) % NAMES.length]);
+            parent.put("createdAt", 1500000000000L + i);
+            parent.put("address", addressMap(i + level));
+            List<Object> childNames = new ArrayList<>();
+            for(int c = 0; c < 4; c++) {
+                childNames.add((long) (i + c));
+            }
+            parent.put("childNames", childNames);
+            if(doc != null) {
+                parent.put("child", doc);
+            }
+            doc = parent;
+        }
+        doc.put("name", NAMES[i % NAMES.length]);
+        doc.put("_id", "nested-" + i);
+        return doc;
+    }
+
+    private static Address address(int i) {
+        return new Address()
+                .street(i + " El Monte Blvd")
+                .city("Los Altos Hills")
+                .state(STATES[i % STATES.length])
+                .zip(String.valueOf(94000 + i % 1000));
+    }
+
+    private static Map<Object, Object> addressMap(int i) {
+        Map<Object, Object> address = new LinkedHashMap<>();
+        address.put("street", i + " El Monte Blvd");
+        address.put("city", "Los Altos Hills");
+        address.put("state", STATES[i % STATES.length]);
+        address.put("zip", String.valueOf(94000 + i % 1000));
+        return address;
+    }
+}
@@ -0,0 +1,113 @@
+package org.eatbacon.benchmarks;
+
+import com.apple.foundationdb.Database;
+import com.apple.foundationdb.KeyValue;
+import com.apple.foundationdb.subspace.Subspace;
+import com.apple.foundationdb.tuple.Tuple;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.swagger.util.Json;
+import org.eatbacon.dao.DatabaseProvider;
+import org.eatbacon.dao.TupleManager;
+import org.eatbacon.query.CompiledQuery;
+import org.eatbacon.query.Filters;
+import org.eatbacon.query.Query;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Matching a query against a single document, which unindexed finds do for every document they scan: against
+ * its tuples with `Query.isSatisfiedBy`, and against its stored key-values with a `CompiledQuery`. Each is
+ * measured with a query on a top-level field which matches, and one on a nested field which doesn't and so
+ * checks the whole document
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueryBenchmark {
+    private static final ObjectMapper MAPPER = Json.mapper().copy()
+            .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, true);
+
+    @Param({"person", "myModel-small", "myModel-large", "nested-4", "nested-8"})
+    public String shape;
+
+    private List<Tuple> tuples;
+    private List<KeyValue> doc;
+    private int offset;
+
+    private Query match;
+    private Query miss;
+    private CompiledQuery compiledMatch;
+    private CompiledQuery compiledMiss;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        Map<Object, Object> map = MAPPER.convertValue(Documents.create(shape, 1), Map.class);
+        map.put("_id", "benchmark");
+
+        // stores the document to read back its key-values, which live under the keyspace of the class
+        Database db = DatabaseProvider.inMemory().getDatabase();
+        TupleManager md = TupleManager.getInstance(QueryBenchmark.class, "_id");
+        md.insertDoc(db, map);
+        Subspace docSpace = new Subspace(Tuple.from(TupleManager.getKeySpace(QueryBenchmark.class)));
+        doc = db.read(tr -> tr.getRange(docSpace.range(Tuple.from("benchmark"))).asList().join());
+        offset = docSpace.pack(Tuple.from("benchmark")).length;
+
+        // each key-value is a tuple of the path and the value
+        tuples = doc.stream()
+                .map(kv -> docSpace.unpack(kv.getKey()).popFront().addAll(Tuple.fromBytes(kv.getValue())))
+                .collect(Collectors.toList());
+
+        match = Filters.eq(Documents.getNameField(shape), Documents.NAMES[1]);
+        miss = Filters.eq("address", "state", "ZZ");
+        compiledMatch = match.compile();
+        compiledMiss = miss.compile();
+    }
+
+    private static boolean isSatisfiedBy(Query query, List<Tuple> tuples) {
+        for(Tuple tuple : tuples) {
+            if(query.isSatisfiedBy(tuple)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Benchmark
+    public boolean isSatisfiedByMatch() {
+        return isSatisfiedBy(match, tuples);
+    }
+
+    @Benchmark
+    public boolean isSatisfiedByMiss() {
+        return isSatisfiedBy(miss, tuples);
+    }
+
+    @Benchmark
+    public boolean compiledMatch() {
+        return compiledMatch.matches(doc, offset);
+    }
+
+    @Benchmark
+    public boolean compiledMiss() {
+        return compiledMiss.matches(doc, offset);
+    }
+}
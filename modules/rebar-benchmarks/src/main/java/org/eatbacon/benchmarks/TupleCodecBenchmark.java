@@ -0,0 +1,79 @@
+package org.eatbacon.benchmarks;
+
+import com.apple.foundationdb.Database;
+import com.apple.foundationdb.Transaction;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.swagger.util.Json;
+import org.eatbacon.dao.DatabaseProvider;
+import org.eatbacon.dao.TupleManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converting a document between objects, Maps and key-values, which every write and read does: `convertValue`
+ * into a Map, `insertDoc` from a Map into the key-values of a transaction, and `getDoc` from the stored
+ * key-values back into a Map
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TupleCodecBenchmark {
+    // configured as the DAOs configure theirs
+    private static final ObjectMapper MAPPER = Json.mapper().copy()
+            .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, true);
+
+    @Param({"person", "myModel-small", "myModel-large", "nested-4", "nested-8"})
+    public String shape;
+
+    private Object document;
+    private Map<Object, Object> map;
+    private Database db;
+    private TupleManager md;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        document = Documents.create(shape, 1);
+        map = MAPPER.convertValue(document, Map.class);
+        map.put("_id", "benchmark");
+
+        db = DatabaseProvider.inMemory().getDatabase();
+        md = TupleManager.getInstance(TupleCodecBenchmark.class, "_id");
+        md.insertDoc(db, map);
+    }
+
+    @Benchmark
+    public Map<?, ?> convertValue() {
+        return MAPPER.convertValue(document, Map.class);
+    }
+
+    // packs the keys and values of the document into a transaction which is never committed
+    @Benchmark
+    public Object insertDoc() {
+        try (Transaction tr = db.createTransaction()) {
+            return md.insertDoc(tr, map);
+        }
+    }
+
+    // reads the document from memory, so this is mostly decoding
+    @Benchmark
+    public Object getDoc() {
+        return md.getDoc(db, "benchmark");
+    }
+}
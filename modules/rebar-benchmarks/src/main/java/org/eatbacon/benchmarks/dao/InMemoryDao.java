@@ -0,0 +1,23 @@
+package org.eatbacon.benchmarks.dao;
+
+import org.eatbacon.dao.AbstractDao;
+import org.eatbacon.dao.DatabaseProvider;
+
+import java.util.List;
+
+// the benchmark DAOs store their documents in memory, so they measure the library rather than a cluster
+public abstract class InMemoryDao<T> extends AbstractDao<T> {
+    @Override
+    protected DatabaseProvider getDatabaseProvider() {
+        return DatabaseProvider.inMemory();
+    }
+
+    /**
+     * Reads and decodes every document in one transaction
+     *
+     * @return
+     */
+    public List<Object> getAll() {
+        return getTupleManager().getAll(getDatabaseProvider().getDatabase());
+    }
+}
@@ -0,0 +1,32 @@
+package org.eatbacon.benchmarks.dao;
+
+import org.eatbacon.test.impl.models.MyModel;
+import org.eatbacon.query.Index;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class MyModelDao extends InMemoryDao<MyModel> {
+    private static MyModelDao INSTANCE = new MyModelDao();
+
+    public static MyModelDao getInstance() {
+        return INSTANCE;
+    }
+
+    @Override
+    protected List<Index> getIndexes() {
+        return Arrays.asList(
+                new Index("name"),
+                new Index("address", "zip"));
+    }
+
+    @Override
+    protected Class<?> getObjectClass() {
+        return MyModel.class;
+    }
+
+    @Override
+    protected String getUniqueId(MyModel obj) {
+        return obj.getId();
+    }
+}
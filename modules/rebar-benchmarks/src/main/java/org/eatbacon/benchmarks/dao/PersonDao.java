@@ -0,0 +1,32 @@
+package org.eatbacon.benchmarks.dao;
+
+import org.eatbacon.benchmarks.models.Person;
+import org.eatbacon.query.Index;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class PersonDao extends InMemoryDao<Person> {
+    private static PersonDao INSTANCE = new PersonDao();
+
+    public static PersonDao getInstance() {
+        return INSTANCE;
+    }
+
+    @Override
+    protected List<Index> getIndexes() {
+        return Arrays.asList(
+                new Index("lastName"),
+                new Index("address", "zip"));
+    }
+
+    @Override
+    protected Class<?> getObjectClass() {
+        return Person.class;
+    }
+
+    @Override
+    protected String getUniqueId(Person obj) {
+        return obj.getId().toString();
+    }
+}
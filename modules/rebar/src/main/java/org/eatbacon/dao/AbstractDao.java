@@ -1,9 +1,12 @@
 package org.eatbacon.dao;
 
 import com.apple.foundationdb.Database;
-import com.apple.foundationdb.FDB;
+import com.apple.foundationdb.MutationType;
 import com.apple.foundationdb.Transaction;
+import com.apple.foundationdb.async.AsyncUtil;
 import com.apple.foundationdb.tuple.Tuple;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import io.swagger.util.Json;
 import org.eatbacon.query.Index;
 import org.eatbacon.query.Query;
@@ -11,9 +14,20 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 /**
  * This is an abstract parameterized class that provides persistence functionality for a single class
@@ -23,8 +37,40 @@ import java.util.stream.Collectors;
 public abstract class AbstractDao<T> {
     static final Logger LOGGER = LoggerFactory.getLogger(AbstractDao.class);
 
-    private static final FDB fdb;
-    private static final Database db;
+    private static final ExecutorService INDEX_BUILD_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "rebar-index-build");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final ExecutorService SCAN_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "rebar-scan");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final ExecutorService BULK_INSERT_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "rebar-bulk-insert");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final ScheduledExecutorService GROUP_COMMIT_SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+                Thread thread = new Thread(runnable, "rebar-group-commit-timer");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private static final ExecutorService GROUP_COMMIT_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "rebar-group-commit");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // dates are stored as epoch millis so they keep their order in keys and compare with numeric queries
+    protected static final ObjectMapper MAPPER = Json.mapper().copy()
+            .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, true);
 
     protected abstract Class<?> getObjectClass();
     protected abstract String getUniqueId(T obj);
@@ -33,18 +79,38 @@ public abstract class AbstractDao<T> {
     // override this only if there is a conflict with an existing field name
     protected String uniqueIdName = "_id";
 
+    // number of key-values read per transaction when scanning the docSpace
+    protected int scanBatchSize = TupleManager.DEFAULT_BATCH_SIZE;
+
+    // number of sub-ranges scanned at once by the parallel finders, and the executor they run on
+    protected int scanParallelism = Runtime.getRuntime().availableProcessors();
+    protected Executor scanExecutor = SCAN_EXECUTOR;
+
+    // executor the async finders decode documents on, so decoding never runs on the FDB network thread. Set by
+    // the constructor to the executor of the database
+    protected Executor decodeExecutor;
+
     // indexes are defined here and are optional. Override to add indexes in your implementation
     protected List<Index> getIndexes() {
         return new ArrayList<>();
     }
 
-    static {
-        // TODO: Use a configuration when opening the DB
-        fdb = FDB.selectAPIVersion(600);
-        db = fdb.open();
-    }
+    private final Database db;
+    private final DocumentCache cache;
+    private final IdGenerator idGenerator;
+    private final GroupCommit groupCommit;
 
     public AbstractDao() {
+        // opened first, as the other hooks called here may use it
+        this.db = getDatabaseProvider().getDatabase(getTransactionProfile());
+        this.decodeExecutor = db.getExecutor();
+        getTupleManager().configure(createCodec(), getStorageMode(), isCompressed());
+        this.cache = createCache();
+        this.idGenerator = createIdGenerator();
+        GroupCommitOptions groupCommitOptions = getGroupCommitOptions();
+        this.groupCommit = groupCommitOptions == null ? null : new GroupCommit(db, getTupleManager(), idGenerator,
+                groupCommitOptions, GROUP_COMMIT_SCHEDULER, GROUP_COMMIT_EXECUTOR);
+
         // make sure all indexes are configured for this DAO
         for(Index index : getIndexes()) {
             ensureIndex(index);
@@ -61,43 +127,285 @@ public abstract class AbstractDao<T> {
     }
 
     /**
-     * Ensures indexes are created for this class and creates them if they are not.
+     * How documents are stored. Override to store each document as a single packed value, which takes less
+     * space and reads faster when documents are mostly read whole. Every DAO of a class must store it the same
+     * way, and the same goes for `isCompressed` and `createCodec`
+     *
+     * @return
+     */
+    protected StorageMode getStorageMode() {
+        return StorageMode.FIELDS;
+    }
+
+    // compresses packed documents, trading CPU for storage and read volume
+    protected boolean isCompressed() {
+        return false;
+    }
+
+    /**
+     * Provides the database of this DAO. Defaults to the cluster file named by the `rebar.clusterFile` system
+     * property; override to connect a DAO to another cluster. Called once by the constructor, with
+     * `getTransactionProfile`, before the fields of a subclass are set
+     *
+     * @return
+     */
+    protected DatabaseProvider getDatabaseProvider() {
+        return DatabaseProvider.getDefault();
+    }
+
+    /**
+     * Options for every transaction of this DAO, such as timeouts, retry limits, priority or snapshot scans, or
+     * null to use the client's defaults
+     *
+     * @return
+     */
+    protected TransactionProfile getTransactionProfile() {
+        return null;
+    }
+
+    /**
+     * Creates the codec which converts objects to and from tuples directly. Objects the codec doesn't
+     * support, and every object when this returns null, are converted through a Map with the `MAPPER`
+     *
+     * @return
+     */
+    protected PojoCodec createCodec() {
+        return PojoCodec.forClass(getObjectClass(), MAPPER);
+    }
+
+    /**
+     * Creates the cache `findById` reads through, or null for no cache. Override for collections with hot
+     * documents which rarely change, such as `new DocumentCache(10000, 64 * 1024 * 1024)`
+     *
+     * @return
+     */
+    protected DocumentCache createCache() {
+        return null;
+    }
+
+    /**
+     * Creates the strategy for the ids of objects inserted without one. Defaults to random numbers, each checked
+     * with a read; see `IdGenerators` for strategies which don't read
+     *
+     * @return
+     */
+    protected IdGenerator createIdGenerator() {
+        return IdGenerators.random(getTupleManager());
+    }
+
+    /**
+     * Turns on group commit when it returns options: concurrent `insert`, `insertAsync` and `update` calls are
+     * then committed together in shared transactions, trading a short wait for far fewer commits under load
+     *
+     * @return
+     */
+    protected GroupCommitOptions getGroupCommitOptions() {
+        return null;
+    }
+
+    // the cache findById reads through, with its hit and miss counts, or null
+    public DocumentCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Ensures indexes are created for this class and creates them if they are not. A new index is built in the
+     * background from the existing documents, in batches of `scanBatchSize` key-values, and is used for
+     * queries once complete. An index whose build was interrupted resumes where it stopped
      *
      * @param index
+     * @return a future which completes when the index can be used for queries
      */
-    public void ensureIndex(Index index) {
-        List<Index> existingIndexes = db.run((Transaction tr) -> getTupleManager().getIndexes(tr));
+    public CompletableFuture<Void> ensureIndex(Index index) {
+        TupleManager md = getTupleManager();
+        Index.State state = db.run((Transaction tr) -> md.ensureIndex(tr, index));
 
-        if(!existingIndexes.contains(index)) {
-            db.run((Transaction tr) -> {
-                getTupleManager().ensureIndex(tr, index);
-                return null;
-            });
-        }
-        else {
+        if(state == Index.State.READABLE) {
             LOGGER.info("index already exists");
+            return CompletableFuture.completedFuture(null);
         }
+        return md.buildIndexAsync(db, index, scanBatchSize, INDEX_BUILD_EXECUTOR);
     }
 
     /**
-     * Converts an object into a Map and passes it on to the tuple manager for storage
+     * Converts an object into tuples with the codec, or into a Map when there is no codec for it, and passes
+     * it on to the tuple manager for storage
      *
      * @param obj
      */
     public void insert(T obj) {
-        Map<Object, Object> map = Json.mapper().convertValue(obj, Map.class);
-        map.put(uniqueIdName, getUniqueId(obj));
+        TupleManager md = getTupleManager();
+        List<Tuple> tuples = encode(obj);
+        if(groupCommit != null) {
+            join(groupCommit.insert(getUniqueId(obj), tuples));
+            invalidate(getUniqueId(obj));
+            return;
+        }
 
         db.run((Transaction tr) -> {
             String id = getUniqueId(obj);
             if(id == null) {
-                id = getTupleManager().getNewID(tr);
+                id = idGenerator.newId(tr).join();
             }
-
-            map.put("_id", id);
-            getTupleManager().insertDoc(tr, map);
+            md.insertObject(tr, id, tuples);
             return null;
         });
+        invalidate(getUniqueId(obj));
+    }
+
+    /**
+     * Inserts an object without blocking. The object is encoded on the calling thread, and the write and any
+     * id generation happen in `Database.runAsync`, which retries the transaction on conflicts
+     *
+     * @param obj
+     * @return the unique id of the object, generated when it didn't have one
+     */
+    public CompletableFuture<String> insertAsync(T obj) {
+        TupleManager md = getTupleManager();
+        List<Tuple> tuples = encode(obj);
+        String id = getUniqueId(obj);
+        CompletableFuture<String> inserted;
+        if(groupCommit != null) {
+            inserted = groupCommit.insert(id, tuples);
+        }
+        else {
+            inserted = db.runAsync((Transaction tr) -> {
+                CompletableFuture<String> uniqueId = id != null ? CompletableFuture.completedFuture(id)
+                        : idGenerator.newId(tr);
+                return uniqueId.thenCompose(newId -> md.insertObjectAsync(tr, newId, tuples)
+                        .thenApply(written -> newId));
+            });
+        }
+        return inserted.whenComplete((newId, e) -> invalidate(id != null ? id : newId));
+    }
+
+    /**
+     * Inserts many objects, packing them into transactions of up to `maxBatchBytes` and `maxBatchKeys` of the
+     * default `BulkInsertOptions` and committing several transactions at once
+     *
+     * @param objects
+     * @return the number of objects inserted
+     */
+    public long insertAll(Iterable<T> objects) {
+        return insertAll(objects, new BulkInsertOptions());
+    }
+
+    /**
+     * Inserts many objects in batches. Each batch is a transaction of its own, so a batch that fails is retried
+     * without redoing the others, and up to `maxInFlight` batches commit at once while the next one is filled.
+     * Only the batches in flight are held in memory. If a batch can't be committed, no further batches are
+     * started and the failure is thrown once the batches in flight are done; batches which were committed
+     * stay committed
+     *
+     * @param objects
+     * @param options
+     * @return the number of objects inserted
+     */
+    public long insertAll(Iterable<T> objects, BulkInsertOptions options) {
+        try {
+            return new BulkInsert(db, getTupleManager(), idGenerator, options, BULK_INSERT_EXECUTOR)
+                    .run(objects.iterator(), this::getUniqueId, this::encode);
+        }
+        finally {
+            // the ids written aren't kept, so nothing cached is trusted
+            clearCache();
+        }
+    }
+
+    public long insertAll(Stream<T> objects) {
+        return insertAll(objects, new BulkInsertOptions());
+    }
+
+    public long insertAll(Stream<T> objects, BulkInsertOptions options) {
+        return insertAll((Iterable<T>) objects::iterator, options);
+    }
+
+    /**
+     * Replaces the stored version of an object. Only the fields and index entries which changed are written,
+     * and fields which were removed are cleared. An object which isn't stored yet is inserted
+     *
+     * @param obj
+     */
+    public void update(T obj) {
+        String id = getUniqueId(obj);
+        if(id == null) {
+            throw new IllegalArgumentException("update requires a unique id");
+        }
+        TupleManager md = getTupleManager();
+        List<Tuple> tuples = encode(obj);
+        if(groupCommit != null) {
+            join(groupCommit.update(id, tuples));
+        }
+        else {
+            db.run((Transaction tr) -> md.updateObject(tr, id, tuples));
+        }
+        invalidate(id);
+    }
+
+    /**
+     * Deletes an object and its index entries
+     *
+     * @param id
+     * @return true if the object existed
+     */
+    public boolean delete(String id) {
+        boolean deleted = getTupleManager().deleteDoc(db, id);
+        invalidate(id);
+        return deleted;
+    }
+
+    /**
+     * Deletes every object matching a query, in batches which each run in their own transaction
+     *
+     * @param query
+     * @return the number of objects deleted
+     */
+    public long deleteWhere(Query query) {
+        try {
+            return getTupleManager().deleteWhere(db, query, scanBatchSize);
+        }
+        finally {
+            clearCache();
+        }
+    }
+
+    /**
+     * Atomically adds to an integer field, without adding read conflicts. Increments never conflict with each
+     * other or with writes of the object, so this suits hot counters. The object isn't checked for existence,
+     * and the field can't be indexed. A field which was raised with `max` or lowered with `min` can't be
+     * incremented until it is written by `update`, and the other way around
+     *
+     * @param id
+     * @param path dotted field path, such as `stats.views`
+     * @param delta
+     */
+    public void increment(String id, String path, long delta) {
+        getTupleManager().mutate(db, id, toPaths(path).get(0), MutationType.ADD, delta);
+        invalidate(id);
+    }
+
+    /**
+     * Atomically raises a numeric field to at least the value, without adding read conflicts, like `increment`
+     *
+     * @param id
+     * @param path dotted field path
+     * @param value
+     */
+    public void max(String id, String path, long value) {
+        getTupleManager().mutate(db, id, toPaths(path).get(0), MutationType.MAX, value);
+        invalidate(id);
+    }
+
+    /**
+     * Atomically lowers a numeric field to at most the value, without adding read conflicts, like `increment`
+     *
+     * @param id
+     * @param path dotted field path
+     * @param value
+     */
+    public void min(String id, String path, long value) {
+        getTupleManager().mutate(db, id, toPaths(path).get(0), MutationType.MIN, value);
+        invalidate(id);
     }
 
     /**
@@ -107,57 +415,328 @@ public abstract class AbstractDao<T> {
      * @return
      */
     public T findById(String id) {
-        return db.run((Transaction tr) -> {
-            Object obj = getTupleManager().getDoc(tr, id);
-            return (T)Json.mapper().convertValue(obj, getObjectClass());
-        });
+        if(cache != null) {
+            return toObject(getTupleManager().getDoc(db, id, cache));
+        }
+        return db.run((Transaction tr) -> toObject(getTupleManager().getDoc(tr, id)));
+    }
+
+    /**
+     * Finds an object based on unique ID, reading only the values under the supplied paths. Each path is a
+     * separate range read, issued in parallel within one transaction, and the other fields of the object are
+     * left unset
+     *
+     * @param id
+     * @param paths dotted field paths, such as `address.zip`
+     * @return
+     */
+    public T findById(String id, String... paths) {
+        if(paths.length == 0) {
+            return findById(id);
+        }
+        List<Object> docs = db.run((Transaction tr) -> getTupleManager().getDocs(tr, Collections.singletonList(id),
+                toPaths(paths)));
+        return docs.isEmpty() ? null : toObject(docs.get(0));
+    }
+
+    /**
+     * Finds objects for a set of unique IDs, reading all of them in parallel within one transaction.
+     * Objects are returned in the order of the IDs, and IDs which are not found are skipped
+     *
+     * @param ids
+     * @return
+     */
+    public List<T> findByIds(Collection<String> ids) {
+        if(ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return db.run((Transaction tr) -> getTupleManager().getDocs(tr, ids)).stream()
+                .map(this::toObject)
+                .collect(Collectors.toList());
     }
 
     /**
-     * finds all values and returns in a list.
-     * TODO: should stream values to a processor instead of putting in a single map
-     * TODO: should take a SKIP and LIMIT parameter to avoid getting everything and allow range queries
+     * Finds an object based on unique ID without blocking. The read is issued with `Database.readAsync` and the
+     * object is decoded on the `decodeExecutor`
+     *
+     * @param id
+     * @return the object, or null if it isn't found
+     */
+    public CompletableFuture<T> findByIdAsync(String id) {
+        return findByIdsAsync(Collections.singletonList(id)).thenApply(items -> items.isEmpty() ? null : items.get(0));
+    }
+
+    /**
+     * Finds objects for a set of unique IDs without blocking. IDs are read in chunks of `scanBatchSize`, each
+     * chunk as one read transaction, and all chunks are read at once. Objects are returned in the order of the
+     * IDs, and IDs which are not found are skipped
+     *
+     * @param ids
+     * @return
+     */
+    public CompletableFuture<List<T>> findByIdsAsync(Collection<String> ids) {
+        TupleManager md = getTupleManager();
+        List<String> list = new ArrayList<>(ids);
+        List<CompletableFuture<List<Object>>> chunks = new ArrayList<>();
+        for(int i = 0; i < list.size(); i += scanBatchSize) {
+            chunks.add(md.getDocsAsync(db, list.subList(i, Math.min(list.size(), i + scanBatchSize)), decodeExecutor));
+        }
+        return AsyncUtil.getAll(chunks).thenApply(results -> results.stream()
+                .flatMap(List::stream)
+                .map(this::toObject)
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * finds all values and returns in a list. Prefer `streamAll` or the paged `findAll` for large collections
      *
      * @return
      */
     public List<T> findAll() {
-        return db.run((Transaction tr) -> {
-            List<Object> obj = getTupleManager().getAll(tr);
-            List<?> output = obj.stream().map(item ->
-                    Json.mapper().convertValue(item, getObjectClass())).collect(Collectors.toList());
-            return (List<T>) output;
-        });
+        return streamAll().collect(Collectors.toList());
     }
 
     /**
-     * Finds items based on a query
+     * finds up to `limit` values, starting after the continuation of a previous page
      *
-     * TODO: should stream results to client
-     * TODO: should have skip/limit on this as well
+     * @param limit maximum number of values to return
+     * @param continuation token from the previous page, or null for the first page
+     * @return
+     */
+    public Page<T> findAll(int limit, String continuation) {
+        return find(null, limit, continuation);
+    }
+
+    /**
+     * Streams all values, one document at a time. The docSpace is read in batches of `scanBatchSize`
+     * key-values, each in its own transaction, so memory stays flat regardless of the collection size.
+     * Documents written while the stream is consumed may or may not be seen
+     *
+     * @return
+     */
+    public Stream<T> streamAll() {
+        return getTupleManager().streamAll(db, scanBatchSize).map(this::toObject);
+    }
+
+    /**
+     * Finds items based on a query
      *
      * @param query
      * @return
      */
     public List<T> find(Query query) {
+        return stream(query).collect(Collectors.toList());
+    }
+
+    /**
+     * Finds items based on a query without blocking. Indexed queries read the matching ids and then the
+     * documents, other queries scan the docSpace in batches of `scanBatchSize` key-values, one read
+     * transaction after another. Documents are matched and decoded on the `decodeExecutor`. Whether the path
+     * can use an index is checked without blocking as well
+     *
+     * @param query
+     * @return
+     */
+    public CompletableFuture<List<T>> findAsync(Query query) {
         TupleManager md = getTupleManager();
-        return db.run((Transaction tr) -> {
-            List<T> output = new ArrayList<>();
-            Tuple queryPath = query.getPathAsTuple();
-            if(md.canUseIndex(tr, queryPath)) {
-                md.getIdsFromIndex(tr, query.build()).forEach(idTuple -> {
-                    LOGGER.debug("Looking up object by id " + idTuple);
-                    T val = findById(String.valueOf(idTuple.get(0)));
-                    if(val != null) {
-                        output.add(val);
-                    }
-                });
-                return output;
-            }
-            else {
-                List<Object> objs = md.getByQuery(tr, query);
-                return (List<T> ) objs.stream().map(item ->
-                        Json.mapper().convertValue(item, getObjectClass())).collect(Collectors.toList());
+        return db.readAsync(tr -> md.canUseIndexAsync(tr, query.getPathAsTuple())).thenCompose(indexed -> {
+            if(indexed) {
+                return md.getIdsFromIndexAsync(db, query).thenCompose(ids -> findByIdsAsync(toIds(ids)));
             }
+            return md.getByQueryAsync(db, query, scanBatchSize, decodeExecutor)
+                    .thenApply(items -> items.stream().map(this::toObject).collect(Collectors.toList()));
         });
     }
+
+    /**
+     * Finds all values without blocking, scanning the docSpace like `findAsync`
+     *
+     * @return
+     */
+    public CompletableFuture<List<T>> findAllAsync() {
+        return getTupleManager().getByQueryAsync(db, null, scanBatchSize, decodeExecutor)
+                .thenApply(items -> items.stream().map(this::toObject).collect(Collectors.toList()));
+    }
+
+    /**
+     * Finds items based on a query, with only the values under the supplied paths set. Indexed queries read
+     * just those paths of each matching document, other queries decode just those paths of the documents they
+     * scan
+     *
+     * @param query
+     * @param paths dotted field paths, such as `address.zip`
+     * @return
+     */
+    public List<T> find(Query query, String... paths) {
+        return stream(query, paths.length == 0 ? null : toPaths(paths)).collect(Collectors.toList());
+    }
+
+    /**
+     * Finds up to `limit` items matching a query, starting after the continuation of a previous page. Indexed
+     * queries page over the index keys, other queries page over the docSpace, so each page continues with a
+     * range read from where the last one stopped instead of rescanning from the start
+     *
+     * @param query the query to match, or null to match everything
+     * @param limit maximum number of items to return
+     * @param continuation token from the previous page, or null for the first page
+     * @return
+     */
+    public Page<T> find(Query query, int limit, String continuation) {
+        if(limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        TupleManager md = getTupleManager();
+        byte[] after = Page.decodeContinuation(continuation);
+        if(query != null && db.run((Transaction tr) -> md.canUseIndex(tr, query.getPathAsTuple()))) {
+            Page<Tuple> ids = md.getIdsFromIndex(db, query, limit, after);
+            return new Page<>(findByIds(toIds(ids.getItems())), ids.getContinuation());
+        }
+        return md.getPage(db, query, limit, after).map(this::toObject);
+    }
+
+    /**
+     * Streams items matching a query. Indexed queries resolve the matching ids first and then look up each
+     * document, other queries scan the docSpace in batches like `streamAll`
+     *
+     * @param query
+     * @return
+     */
+    public Stream<T> stream(Query query) {
+        return stream(query, null);
+    }
+
+    private Stream<T> stream(Query query, List<Tuple> paths) {
+        TupleManager md = getTupleManager();
+        Tuple queryPath = query.getPathAsTuple();
+        if(db.run((Transaction tr) -> md.canUseIndex(tr, queryPath))) {
+            List<String> ids = toIds(db.run((Transaction tr) -> md.getIdsFromIndex(tr, query)));
+            LOGGER.debug("Looking up " + ids.size() + " objects by id");
+
+            // fetch the documents in chunks, each chunk as one parallel multi-get
+            int chunks = (ids.size() + scanBatchSize - 1) / scanBatchSize;
+            return IntStream.range(0, chunks)
+                    .mapToObj(i -> ids.subList(i * scanBatchSize, Math.min(ids.size(), (i + 1) * scanBatchSize)))
+                    .flatMap(chunk -> paths == null ? findByIds(chunk).stream()
+                            : db.run((Transaction tr) -> md.getDocs(tr, chunk, paths)).stream().map(this::toObject));
+        }
+        else {
+            return md.streamByQuery(db, query, scanBatchSize, paths).map(this::toObject);
+        }
+    }
+
+    /**
+     * Finds all values by scanning sub-ranges of the docSpace in parallel on the `scanExecutor`. Values are
+     * returned in the same order as `findAll`
+     *
+     * @return
+     */
+    public List<T> findAllParallel() {
+        return findParallel(null);
+    }
+
+    /**
+     * Finds items matching a query by scanning up to `scanParallelism` sub-ranges of the docSpace in parallel.
+     * Indexes are not used, so this suits queries which match a large part of the collection
+     *
+     * @param query the query to match, or null to match everything
+     * @return
+     */
+    public List<T> findParallel(Query query) {
+        TupleManager md = getTupleManager();
+        List<CompletableFuture<List<T>>> scans = md.getScanRanges(db, scanParallelism).stream()
+                .map(range -> CompletableFuture.supplyAsync(() -> md.streamRange(db, range, query, scanBatchSize)
+                        .map(this::toObject)
+                        .collect(Collectors.toList()), scanExecutor))
+                .collect(Collectors.toList());
+        return join(CompletableFuture.allOf(scans.toArray(new CompletableFuture<?>[0]))
+                .thenApply(done -> scans.stream()
+                        .flatMap(scan -> scan.join().stream())
+                        .collect(Collectors.toList())));
+    }
+
+    /**
+     * Passes every item matching a query to the action, scanning sub-ranges of the docSpace in parallel
+     * without holding the results in memory. The action is called from several threads at once, in no
+     * particular order
+     *
+     * @param query the query to match, or null to match everything
+     * @param action
+     */
+    public void forEachParallel(Query query, Consumer<? super T> action) {
+        TupleManager md = getTupleManager();
+        CompletableFuture<?>[] scans = md.getScanRanges(db, scanParallelism).stream()
+                .map(range -> CompletableFuture.runAsync(() -> md.streamRange(db, range, query, scanBatchSize)
+                        .map(this::toObject)
+                        .forEach(action), scanExecutor))
+                .toArray(CompletableFuture[]::new);
+        join(CompletableFuture.allOf(scans));
+    }
+
+    // rethrows the failure of a scan rather than the CompletionException wrapping it
+    private static <R> R join(CompletableFuture<R> future) {
+        try {
+            return future.join();
+        }
+        catch (CompletionException e) {
+            if(e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    // dotted paths, with segments which are whole numbers read as array indexes
+    private static List<Tuple> toPaths(String... paths) {
+        List<Tuple> output = new ArrayList<>(paths.length);
+        for(String path : paths) {
+            Tuple tuple = new Tuple();
+            for(String segment : path.split("\\.")) {
+                tuple = segment.matches("0|[1-9][0-9]{0,17}") ? tuple.add(Long.parseLong(segment)) : tuple.add(segment);
+            }
+            output.add(tuple);
+        }
+        return output;
+    }
+
+    private static List<String> toIds(List<Tuple> idTuples) {
+        return idTuples.stream().map(idTuple -> String.valueOf(idTuple.get(0))).collect(Collectors.toList());
+    }
+
+    // other writers are caught by the version check, this only saves the cache from holding a stale document
+    private void invalidate(String id) {
+        if(cache != null && id != null) {
+            cache.invalidate(id);
+        }
+    }
+
+    private void clearCache() {
+        if(cache != null) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Converts an object into tuples of path and value with the codec, or through a Map when there is no codec
+     * for it. The unique id is added by the tuple manager
+     */
+    @SuppressWarnings("unchecked")
+    private List<Tuple> encode(T obj) {
+        PojoCodec codec = getTupleManager().getCodec();
+        List<Tuple> tuples = codec == null ? null : codec.encode(obj);
+        if(tuples == null) {
+            Map<Object, Object> map = MAPPER.convertValue(obj, Map.class);
+            map.remove(uniqueIdName);
+            tuples = TupleManager.toTuples(map);
+        }
+        return tuples;
+    }
+
+    @SuppressWarnings("unchecked")
+    protected T toObject(Object item) {
+        if(getObjectClass().isInstance(item)) {
+            // already decoded by the codec
+            return (T) item;
+        }
+        return (T) MAPPER.convertValue(item, getObjectClass());
+    }
 }
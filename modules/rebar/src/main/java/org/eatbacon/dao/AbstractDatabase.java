@@ -0,0 +1,88 @@
+package org.eatbacon.dao;
+
+import com.apple.foundationdb.Database;
+import com.apple.foundationdb.ReadTransaction;
+import com.apple.foundationdb.Transaction;
+import com.apple.foundationdb.async.AsyncUtil;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * The retry loops of a database, the same as the FDB client's own: a transaction is run and committed, and on
+ * an error `onError` either waits out the back-off and returns the transaction to retry with, or fails
+ */
+abstract class AbstractDatabase implements Database {
+    @Override
+    public <T> T read(Function<? super ReadTransaction, T> retryable, Executor e) {
+        return run(retryable, e);
+    }
+
+    @Override
+    public <T> CompletableFuture<T> readAsync(
+            Function<? super ReadTransaction, ? extends CompletableFuture<T>> retryable, Executor e) {
+        return runAsync(retryable, e);
+    }
+
+    @Override
+    public <T> T run(Function<? super Transaction, T> retryable, Executor e) {
+        Transaction tr = createTransaction(e);
+        try {
+            while(true) {
+                try {
+                    T result = retryable.apply(tr);
+                    tr.commit().join();
+                    return result;
+                }
+                catch (RuntimeException err) {
+                    tr = retry(tr, err).join();
+                }
+            }
+        }
+        catch (CompletionException err) {
+            if(err.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) err.getCause();
+            }
+            throw err;
+        }
+        finally {
+            tr.close();
+        }
+    }
+
+    @Override
+    public <T> CompletableFuture<T> runAsync(Function<? super Transaction, ? extends CompletableFuture<T>> retryable,
+                                             Executor e) {
+        AtomicReference<Transaction> tr = new AtomicReference<>(createTransaction(e));
+        AtomicReference<T> result = new AtomicReference<>();
+
+        return AsyncUtil.whileTrue(() -> AsyncUtil.composeHandleAsync(
+                AsyncUtil.applySafely(retryable, tr.get())
+                        .thenComposeAsync(value -> tr.get().commit().thenApply(committed -> {
+                            result.set(value);
+                            return false;
+                        }), e),
+                (done, err) -> err == null ? CompletableFuture.completedFuture(done)
+                        : retry(tr.get(), err).thenApply(next -> {
+                            tr.set(next);
+                            return true;
+                        }), e), e)
+                .thenApply(finished -> result.get())
+                .whenComplete((value, err) -> tr.get().close());
+    }
+
+    /**
+     * Returns the transaction to retry with after an error, or fails with the error when it can't be retried
+     *
+     * @param tr
+     * @param err
+     * @return
+     */
+    protected CompletableFuture<Transaction> retry(Transaction tr, Throwable err) {
+        Throwable cause = err instanceof CompletionException && err.getCause() != null ? err.getCause() : err;
+        return tr.onError(cause);
+    }
+}
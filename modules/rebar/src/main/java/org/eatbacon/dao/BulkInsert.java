@@ -0,0 +1,194 @@
+package org.eatbacon.dao;
+
+import com.apple.foundationdb.Database;
+import com.apple.foundationdb.FDBException;
+import com.apple.foundationdb.Transaction;
+import com.apple.foundationdb.tuple.Tuple;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Inserts documents in batches, one transaction per batch. The caller's thread encodes documents and fills
+ * batches while up to `maxInFlight` earlier batches commit on the executor; a permit is taken for each batch
+ * before it is filled, so the caller waits when all of them are busy.
+ */
+class BulkInsert {
+    static final Logger LOGGER = LoggerFactory.getLogger(BulkInsert.class);
+
+    // error code FDB returns for a transaction over the size limit
+    static final int TRANSACTION_TOO_LARGE = 2101;
+
+    private final Database db;
+    private final TupleManager md;
+    private final IdGenerator idGenerator;
+    private final String placeholderId;
+    private final BulkInsertOptions options;
+    private final Executor executor;
+
+    private final Semaphore permits;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final AtomicLong total = new AtomicLong();
+
+    BulkInsert(Database db, TupleManager md, IdGenerator idGenerator, BulkInsertOptions options, Executor executor) {
+        this.db = db;
+        this.md = md;
+        this.idGenerator = idGenerator;
+        this.placeholderId = IdGenerators.placeholder(idGenerator);
+        this.options = options;
+        this.executor = executor;
+        this.permits = new Semaphore(options.getMaxInFlight());
+    }
+
+    /**
+     * Inserts every object of the iterator, stopping at the first batch which can't be committed
+     *
+     * @param objects
+     * @param ids returns the unique id of an object, or null to have one generated
+     * @param encoder returns the tuples of path and value of an object
+     * @return the number of objects inserted
+     */
+    <T> long run(Iterator<T> objects, Function<T, String> ids, Function<T, List<Tuple>> encoder) {
+        Batch batch = new Batch();
+        while(objects.hasNext() && failure.get() == null) {
+            T obj = objects.next();
+            String id = ids.apply(obj);
+            List<Tuple> tuples = encoder.apply(obj);
+            int bytes = md.estimateSize(db, id == null ? placeholderId : id, tuples);
+            // the fields, the unique id and the index entries
+            int keys = tuples.size() + 1 + md.countIndexEntries(db, tuples);
+
+            if(!batch.entries.isEmpty() && (batch.bytes + bytes > options.getMaxBatchBytes()
+                    || batch.keys + keys > options.getMaxBatchKeys())) {
+                submit(batch);
+                batch = new Batch();
+            }
+            batch.entries.add(new Entry(id, tuples));
+            batch.bytes += bytes;
+            batch.keys += keys;
+        }
+        if(!batch.entries.isEmpty() && failure.get() == null) {
+            submit(batch);
+        }
+
+        // wait for the batches in flight
+        permits.acquireUninterruptibly(options.getMaxInFlight());
+        permits.release(options.getMaxInFlight());
+
+        Throwable error = failure.get();
+        if(error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        }
+        if(error instanceof Error) {
+            throw (Error) error;
+        }
+        if(error != null) {
+            throw new RuntimeException(error);
+        }
+        return total.get();
+    }
+
+    private void submit(Batch batch) {
+        permits.acquireUninterruptibly();
+        try {
+            executor.execute(() -> {
+                try {
+                    commit(batch.entries);
+                    long committed = total.addAndGet(batch.entries.size());
+                    if(options.getListener() != null) {
+                        options.getListener().batchCommitted(batch.entries.size(), batch.bytes, committed);
+                    }
+                }
+                catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+                finally {
+                    permits.release();
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            permits.release();
+            failure.compareAndSet(null, e);
+        }
+    }
+
+    /**
+     * Commits entries in a single transaction. `db.run` retries conflicts and other retryable errors on its
+     * own; other FDB errors are retried up to `retries` times. Entries which turn out too large for one
+     * transaction, as the size is only estimated, are split in half and committed separately
+     */
+    private void commit(List<Entry> entries) {
+        int attempt = 0;
+        while(true) {
+            try {
+                db.run((Transaction tr) -> {
+                    List<String> ids = new ArrayList<>(entries.size());
+                    List<List<Tuple>> docs = new ArrayList<>(entries.size());
+                    for(Entry entry : entries) {
+                        if(entry.id == null) {
+                            // kept for retries, so a batch retried after an unknown commit result doesn't
+                            // insert its documents again under new ids
+                            entry.id = idGenerator.newId(tr).join();
+                        }
+                        ids.add(entry.id);
+                        docs.add(entry.tuples);
+                    }
+                    md.insertObjects(tr, ids, docs);
+                    return null;
+                });
+                return;
+            }
+            catch (RuntimeException e) {
+                FDBException cause = getFDBException(e);
+                if(cause == null) {
+                    throw e;
+                }
+                if(cause.getCode() == TRANSACTION_TOO_LARGE && entries.size() > 1) {
+                    int half = entries.size() / 2;
+                    commit(entries.subList(0, half));
+                    commit(entries.subList(half, entries.size()));
+                    return;
+                }
+                if(attempt++ >= options.getRetries()) {
+                    throw e;
+                }
+                LOGGER.warn("retrying a batch of " + entries.size() + " documents after error " + cause.getCode());
+            }
+        }
+    }
+
+    private static FDBException getFDBException(Throwable e) {
+        for(Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if(cause instanceof FDBException) {
+                return (FDBException) cause;
+            }
+        }
+        return null;
+    }
+
+    private static class Batch {
+        final List<Entry> entries = new ArrayList<>();
+        long bytes;
+        int keys;
+    }
+
+    private static class Entry {
+        volatile String id;
+        final List<Tuple> tuples;
+
+        Entry(String id, List<Tuple> tuples) {
+            this.id = id;
+            this.tuples = tuples;
+        }
+    }
+}
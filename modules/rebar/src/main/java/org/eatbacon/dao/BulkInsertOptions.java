@@ -0,0 +1,90 @@
+package org.eatbacon.dao;
+
+/**
+ * Limits for `AbstractDao.insertAll`. A batch is closed when adding the next document would take it past
+ * `maxBatchBytes` or `maxBatchKeys`, and at most `maxInFlight` batches are held in memory and committing at
+ * once. FDB rejects transactions over 10MB and aborts those running over 5 seconds, so the defaults keep
+ * batches well below both
+ */
+public class BulkInsertOptions {
+    public static final int TRANSACTION_SIZE_LIMIT = 10000000;
+
+    private int maxBatchBytes = 1000000;
+    private int maxBatchKeys = 10000;
+    private int maxInFlight = 4;
+    private int retries = 3;
+    private Listener listener;
+
+    /**
+     * Called after each batch commits, from the thread that committed it
+     */
+    public interface Listener {
+        /**
+         * @param documents documents in the batch
+         * @param bytes estimated bytes of the batch
+         * @param total documents committed so far, across all batches
+         */
+        void batchCommitted(int documents, long bytes, long total);
+    }
+
+    public BulkInsertOptions maxBatchBytes(int maxBatchBytes) {
+        if(maxBatchBytes <= 0 || maxBatchBytes > TRANSACTION_SIZE_LIMIT) {
+            throw new IllegalArgumentException("maxBatchBytes must be between 1 and " + TRANSACTION_SIZE_LIMIT);
+        }
+        this.maxBatchBytes = maxBatchBytes;
+        return this;
+    }
+
+    public BulkInsertOptions maxBatchKeys(int maxBatchKeys) {
+        if(maxBatchKeys <= 0) {
+            throw new IllegalArgumentException("maxBatchKeys must be positive");
+        }
+        this.maxBatchKeys = maxBatchKeys;
+        return this;
+    }
+
+    public BulkInsertOptions maxInFlight(int maxInFlight) {
+        if(maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight must be positive");
+        }
+        this.maxInFlight = maxInFlight;
+        return this;
+    }
+
+    /**
+     * How many times a batch is retried after an error which FDB doesn't retry on its own, such as a commit
+     * which timed out
+     */
+    public BulkInsertOptions retries(int retries) {
+        if(retries < 0) {
+            throw new IllegalArgumentException("retries can't be negative");
+        }
+        this.retries = retries;
+        return this;
+    }
+
+    public BulkInsertOptions listener(Listener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    public int getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+
+    public int getMaxBatchKeys() {
+        return maxBatchKeys;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public int getRetries() {
+        return retries;
+    }
+
+    public Listener getListener() {
+        return listener;
+    }
+}
@@ -0,0 +1,88 @@
+package org.eatbacon.dao;
+
+import com.apple.foundationdb.Database;
+import com.apple.foundationdb.FDB;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Opens the databases the DAOs use. The default provider connects with the cluster file named by the
+ * `rebar.clusterFile` system property, or the client's default cluster file when it isn't set. Each cluster
+ * file is opened once per process and shared by every DAO using it.
+ *
+ * DAOs only use the client's `Database` and `Transaction` interfaces, so a provider may return any
+ * implementation of them. `inMemory()` provides an in-memory database, which the default provider returns
+ * when `rebar.storage` is `memory`, to run tests and benchmarks without a cluster
+ */
+public class DatabaseProvider {
+    public static final int API_VERSION = 600;
+    public static final String CLUSTER_FILE_PROPERTY = "rebar.clusterFile";
+    public static final String STORAGE_PROPERTY = "rebar.storage";
+
+    private static final DatabaseProvider MEMORY = new DatabaseProvider(null) {
+        private final Database database = new MemoryDatabase();
+
+        @Override
+        public Database getDatabase() {
+            return database;
+        }
+    };
+
+    private static final DatabaseProvider DEFAULT = "memory".equals(System.getProperty(STORAGE_PROPERTY)) ? MEMORY
+            : new DatabaseProvider(System.getProperty(CLUSTER_FILE_PROPERTY));
+    private static final Map<String, Database> DATABASES = new HashMap<>();
+
+    private final String clusterFile;
+
+    /**
+     * @param clusterFile path of the cluster file, or null for the client's default
+     */
+    public DatabaseProvider(String clusterFile) {
+        this.clusterFile = clusterFile;
+    }
+
+    public static DatabaseProvider getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Provides a database held in memory, shared by every DAO using this provider. It has the transactions and
+     * conflict checks of FDB, but isn't persisted. It supports what the DAOs use: watches fail with
+     * `UnsupportedOperationException`, as do atomic mutations other than ADD, MAX, MIN and
+     * SET_VERSIONSTAMPED_VALUE
+     *
+     * @return
+     */
+    public static DatabaseProvider inMemory() {
+        return MEMORY;
+    }
+
+    /**
+     * Returns the database of the cluster file, opening it on first use
+     *
+     * @return
+     */
+    public Database getDatabase() {
+        synchronized (DATABASES) {
+            return DATABASES.computeIfAbsent(clusterFile == null ? "" : clusterFile, key -> {
+                FDB fdb = FDB.isAPIVersionSelected() ? FDB.instance() : FDB.selectAPIVersion(API_VERSION);
+                return clusterFile == null ? fdb.open() : fdb.open(clusterFile);
+            });
+        }
+    }
+
+    /**
+     * Returns the database with a profile applied to each of its transactions
+     *
+     * @param profile the profile, or null for none
+     * @return
+     */
+    public Database getDatabase(TransactionProfile profile) {
+        return profile == null ? getDatabase() : new ProfiledDatabase(getDatabase(), profile);
+    }
+
+    public String getClusterFile() {
+        return clusterFile;
+    }
+}
@@ -0,0 +1,204 @@
+package org.eatbacon.dao;
+
+import com.apple.foundationdb.tuple.Tuple;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded LRU cache of documents read by `findById`, holding their tuples of path and value rather than
+ * decoded objects, so callers can't change a cached document by changing the object they were given.
+ *
+ * Every write to a collection bumps its version key, from any node and whether or not it caches, and each
+ * entry remembers the version it was read at. A lookup reads the version key, a single small read, and the entry is
+ * used only when the version hasn't moved; otherwise the whole cache is dropped, as the version doesn't say
+ * which documents changed. With a `versionCheckMillis` above zero, lookups within that many milliseconds of
+ * the last check skip the read and may return a document written by another node in that window. Writes
+ * through the same DAO always evict their documents right away.
+ */
+public class DocumentCache {
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long versionCheckMillis;
+
+    private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private long version = -1;
+    private volatile long versionCheckedAt;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * @param maxEntries maximum number of documents held
+     * @param maxBytes maximum stored size of the documents held, or 0 for no limit
+     */
+    public DocumentCache(int maxEntries, long maxBytes) {
+        this(maxEntries, maxBytes, 0);
+    }
+
+    /**
+     * @param maxEntries maximum number of documents held
+     * @param maxBytes maximum stored size of the documents held, or 0 for no limit
+     * @param versionCheckMillis how long after a version check further lookups trust the cache without one
+     */
+    public DocumentCache(int maxEntries, long maxBytes, long versionCheckMillis) {
+        if(maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        if(maxBytes < 0 || versionCheckMillis < 0) {
+            throw new IllegalArgumentException("maxBytes and versionCheckMillis can't be negative");
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.versionCheckMillis = versionCheckMillis;
+    }
+
+    /**
+     * Returns the tuples of a document if it was cached at the current version of the collection
+     *
+     * @param uniqueId
+     * @param version current version of the collection
+     * @return the tuples, or null on a miss
+     */
+    synchronized List<Tuple> get(Object uniqueId, long version) {
+        checkVersion(version);
+        return lookup(uniqueId);
+    }
+
+    /**
+     * Returns the tuples of a document without a version check, if the last check was recent enough
+     *
+     * @param uniqueId
+     * @return the tuples, or null if the version needs to be checked or the document isn't cached
+     */
+    synchronized List<Tuple> getIfFresh(Object uniqueId) {
+        if(versionCheckMillis == 0 || System.currentTimeMillis() - versionCheckedAt > versionCheckMillis) {
+            return null;
+        }
+        Entry entry = entries.get(uniqueId);
+        if(entry == null) {
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.tuples;
+    }
+
+    /**
+     * Caches the tuples of a document read at a version of the collection
+     *
+     * @param uniqueId
+     * @param version the version read in the same transaction as the document
+     * @param tuples
+     * @param size stored size of the document, in bytes
+     */
+    synchronized void put(Object uniqueId, long version, List<Tuple> tuples, int size) {
+        checkVersion(version);
+        if(version != this.version || maxBytes > 0 && size > maxBytes) {
+            return;
+        }
+        Entry previous = entries.put(uniqueId, new Entry(Collections.unmodifiableList(tuples), size));
+        if(previous != null) {
+            bytes -= previous.size;
+        }
+        bytes += size;
+
+        Iterator<Entry> eldest = entries.values().iterator();
+        while(entries.size() > maxEntries || maxBytes > 0 && bytes > maxBytes) {
+            bytes -= eldest.next().size;
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Drops a document, after a write to it
+     *
+     * @param uniqueId
+     */
+    public synchronized void invalidate(Object uniqueId) {
+        Entry entry = entries.remove(uniqueId);
+        if(entry != null) {
+            bytes -= entry.size;
+            invalidations.incrementAndGet();
+        }
+    }
+
+    public synchronized void clear() {
+        invalidations.addAndGet(entries.size());
+        entries.clear();
+        bytes = 0;
+    }
+
+    // a newer version drops everything, an older one comes from a read which started before the last check
+    private void checkVersion(long version) {
+        if(version > this.version) {
+            clear();
+            this.version = version;
+        }
+        if(version == this.version) {
+            versionCheckedAt = System.currentTimeMillis();
+        }
+    }
+
+    private List<Tuple> lookup(Object uniqueId) {
+        Entry entry = entries.get(uniqueId);
+        if(entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.tuples;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public long getInvalidationCount() {
+        return invalidations.get();
+    }
+
+    public double getHitRate() {
+        long hits = getHitCount();
+        long total = hits + getMissCount();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public String toString() {
+        return "DocumentCache{size=" + size() + ", bytes=" + getBytes() + ", hits=" + getHitCount()
+                + ", misses=" + getMissCount() + ", evictions=" + getEvictionCount() + "}";
+    }
+
+    private static class Entry {
+        final List<Tuple> tuples;
+        final int size;
+
+        Entry(List<Tuple> tuples, int size) {
+            this.tuples = tuples;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package org.eatbacon.dao;
+
+import com.apple.foundationdb.KeySelector;
+import com.apple.foundationdb.KeyValue;
+import com.apple.foundationdb.TransactionContext;
+import com.apple.foundationdb.tuple.ByteArrayUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Walks a docSpace one document at a time. Key-values are read in batches of `batchSize`, each batch in
+ * its own transaction when the cursor is given a `Database`, and grouped into documents as the unique-id
+ * prefix of the key changes. Only the current batch and the document being assembled are held in memory.
+ */
+public class DocumentCursor implements Iterator<List<KeyValue>> {
+    private final TransactionContext tcx;
+    private final TupleManager manager;
+    private final byte[] end;
+    private final int batchSize;
+
+    private byte[] begin;
+    private boolean exhausted = false;
+    private Iterator<KeyValue> batch = Collections.emptyIterator();
+    private KeyValue pending;
+    private List<KeyValue> next;
+
+    /**
+     * Creates a cursor over `[begin, end)` of the docSpace of a TupleManager. The begin key is expected to be
+     * on a document boundary
+     *
+     * @param tcx
+     * @param manager
+     * @param begin
+     * @param end
+     * @param batchSize
+     */
+    public DocumentCursor(TransactionContext tcx, TupleManager manager, byte[] begin, byte[] end, int batchSize) {
+        this.tcx = tcx;
+        this.manager = manager;
+        this.begin = begin;
+        this.end = end;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if(next == null) {
+            next = readDocument();
+        }
+        return next != null;
+    }
+
+    @Override
+    public List<KeyValue> next() {
+        if(!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        List<KeyValue> output = next;
+        next = null;
+        return output;
+    }
+
+    /**
+     * Returns the packed key prefix shared by every key of the document that a key-value belongs to
+     *
+     * @param kv
+     * @return
+     */
+    protected byte[] getDocumentPrefix(KeyValue kv) {
+        return Arrays.copyOf(kv.getKey(), manager.getDocumentPrefixLength(kv.getKey()));
+    }
+
+    private List<KeyValue> readDocument() {
+        KeyValue first = pending != null ? pending : nextKeyValue();
+        pending = null;
+        if(first == null) {
+            return null;
+        }
+
+        List<KeyValue> doc = new ArrayList<>();
+        doc.add(first);
+        byte[] prefix = getDocumentPrefix(first);
+
+        KeyValue kv;
+        while((kv = nextKeyValue()) != null) {
+            if(!ByteArrayUtil.startsWith(kv.getKey(), prefix)) {
+                // since the prefix is the unique ID, when it changes, we have a new object
+                pending = kv;
+                break;
+            }
+            doc.add(kv);
+        }
+        return doc;
+    }
+
+    private KeyValue nextKeyValue() {
+        if(!batch.hasNext()) {
+            if(exhausted) {
+                return null;
+            }
+            final byte[] from = begin;
+            List<KeyValue> kvs = tcx.run(tr -> ProfiledDatabase.forScan(tcx, tr).getRange(
+                    KeySelector.firstGreaterOrEqual(from),
+                    KeySelector.firstGreaterOrEqual(end),
+                    batchSize).asList().join());
+            if(kvs.size() < batchSize) {
+                exhausted = true;
+            }
+            else {
+                // continue just past the last key we have seen
+                begin = ByteArrayUtil.join(kvs.get(kvs.size() - 1).getKey(), new byte[]{0x00});
+            }
+            batch = kvs.iterator();
+            if(!batch.hasNext()) {
+                return null;
+            }
+        }
+        return batch.next();
+    }
+}
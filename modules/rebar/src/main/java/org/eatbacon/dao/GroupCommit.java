@@ -0,0 +1,197 @@
+package org.eatbacon.dao;
+
+import com.apple.foundationdb.Database;
+import com.apple.foundationdb.Transaction;
+import com.apple.foundationdb.tuple.Tuple;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects concurrent inserts and updates of a DAO and commits them together, one transaction per batch
+ * instead of one per write. Each write's future completes once the transaction holding it commits.
+ *
+ * A batch which fails, most often on a conflict, is split in half and each half committed on its own after a
+ * short backoff, so writes which didn't conflict go through without waiting on the ones which did. A single write is retried
+ * like any other transaction, and only its own caller sees it fail.
+ */
+class GroupCommit {
+    static final Logger LOGGER = LoggerFactory.getLogger(GroupCommit.class);
+
+    // backoff before the halves of a failed batch are committed, doubled with each split
+    static final long SPLIT_BACKOFF_MILLIS = 10;
+    static final long MAX_SPLIT_BACKOFF_MILLIS = 1000;
+
+    private final Database db;
+    private final TupleManager md;
+    private final IdGenerator idGenerator;
+    private final String placeholderId;
+    private final GroupCommitOptions options;
+    private final ScheduledExecutorService scheduler;
+    private final Executor executor;
+
+    // guarded by this
+    private List<Write> pending = new ArrayList<>();
+    private long pendingBytes;
+
+    GroupCommit(Database db, TupleManager md, IdGenerator idGenerator, GroupCommitOptions options,
+                ScheduledExecutorService scheduler, Executor executor) {
+        this.db = db;
+        this.md = md;
+        this.idGenerator = idGenerator;
+        this.placeholderId = IdGenerators.placeholder(idGenerator);
+        this.options = options;
+        this.scheduler = scheduler;
+        this.executor = executor;
+    }
+
+    /**
+     * @param uniqueId the id, or null to generate one
+     * @param tuples
+     * @return the unique id, once committed
+     */
+    CompletableFuture<String> insert(String uniqueId, List<Tuple> tuples) {
+        return submit(new Write(false, uniqueId, tuples));
+    }
+
+    CompletableFuture<String> update(String uniqueId, List<Tuple> tuples) {
+        return submit(new Write(true, uniqueId, tuples));
+    }
+
+    private CompletableFuture<String> submit(Write write) {
+        int bytes = md.estimateSize(db, write.uniqueId == null ? placeholderId : write.uniqueId, write.tuples);
+        List<Write> full = null;
+        synchronized(this) {
+            if(!pending.isEmpty() && pendingBytes + bytes > options.getMaxBatchBytes()) {
+                full = takePending();
+            }
+            pending.add(write);
+            pendingBytes += bytes;
+            if(pending.size() >= options.getMaxBatchSize()) {
+                List<Write> batch = takePending();
+                full = full == null ? batch : concat(full, batch);
+            }
+            else if(pending.size() == 1) {
+                List<Write> batch = pending;
+                scheduler.schedule(() -> flush(batch), options.getWindowMicros(), TimeUnit.MICROSECONDS);
+            }
+        }
+        if(full != null) {
+            List<Write> batch = full;
+            executor.execute(() -> commit(batch, 0));
+        }
+        return write.future;
+    }
+
+    // commits the batch the timer was set for, unless it was already committed for being full
+    private void flush(List<Write> batch) {
+        synchronized(this) {
+            if(pending != batch) {
+                return;
+            }
+            takePending();
+        }
+        // the scheduler only keeps time, commits run on the executor
+        executor.execute(() -> commit(batch, 0));
+    }
+
+    private List<Write> takePending() {
+        List<Write> batch = pending;
+        pending = new ArrayList<>();
+        pendingBytes = 0;
+        return batch;
+    }
+
+    private static List<Write> concat(List<Write> first, List<Write> second) {
+        List<Write> output = new ArrayList<>(first);
+        output.addAll(second);
+        return output;
+    }
+
+    /**
+     * Commits a batch in one transaction. A batch which fails is split in half and each half is committed on
+     * its own after a backoff, doubling with each split, so one bad write fails only itself and a contended
+     * key isn't retried right away. A batch of one write is retried by `db.run`
+     */
+    private void commit(List<Write> batch, int splits) {
+        if(batch.size() == 1) {
+            Write write = batch.get(0);
+            try {
+                List<String> ids = db.run((Transaction tr) -> apply(tr, batch));
+                write.future.complete(ids.get(0));
+            }
+            catch (Throwable e) {
+                write.future.completeExceptionally(e);
+            }
+            return;
+        }
+
+        List<String> ids;
+        try (Transaction tr = db.createTransaction()) {
+            ids = apply(tr, batch);
+            tr.commit().join();
+        }
+        catch (RuntimeException e) {
+            LOGGER.debug("splitting a batch of " + batch.size() + " writes after " + e);
+            int half = batch.size() / 2;
+            long backoff = Math.min(SPLIT_BACKOFF_MILLIS << splits, MAX_SPLIT_BACKOFF_MILLIS);
+            for(List<Write> part : Arrays.asList(batch.subList(0, half), batch.subList(half, batch.size()))) {
+                scheduler.schedule(() -> executor.execute(() -> commit(part, splits + 1)), backoff,
+                        TimeUnit.MILLISECONDS);
+            }
+            return;
+        }
+        for(int i = 0; i < batch.size(); i++) {
+            batch.get(i).future.complete(ids.get(i));
+        }
+    }
+
+    private List<String> apply(Transaction tr, List<Write> batch) {
+        List<String> ids = new ArrayList<>(batch.size());
+        for(Write write : batch) {
+            String uniqueId = getUniqueId(tr, write);
+            if(write.update) {
+                md.updateObject(tr, uniqueId, write.tuples);
+            }
+            else {
+                md.insertObject(tr, uniqueId, write.tuples);
+            }
+            ids.add(uniqueId);
+        }
+        return Collections.unmodifiableList(ids);
+    }
+
+    // an id is generated once per write and reused by every retry, so a write retried after an unknown commit
+    // result replaces the document it may have written, rather than adding a copy under another id
+    private String getUniqueId(Transaction tr, Write write) {
+        if(write.uniqueId != null) {
+            return write.uniqueId;
+        }
+        if(write.generatedId == null) {
+            write.generatedId = idGenerator.newId(tr).join();
+        }
+        return write.generatedId;
+    }
+
+    private static class Write {
+        final boolean update;
+        final String uniqueId;
+        final List<Tuple> tuples;
+        final CompletableFuture<String> future = new CompletableFuture<>();
+        volatile String generatedId;
+
+        Write(boolean update, String uniqueId, List<Tuple> tuples) {
+            this.update = update;
+            this.uniqueId = uniqueId;
+            this.tuples = tuples;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package org.eatbacon.dao;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings for group commit, see `AbstractDao.getGroupCommitOptions`. Writes are held for up to `window`
+ * after the first write of a batch arrives, and a batch is committed early once it has `maxBatchSize` writes
+ * or `maxBatchBytes` of documents
+ */
+public class GroupCommitOptions {
+    private long windowMicros = 2000;
+    private int maxBatchSize = 100;
+    private int maxBatchBytes = 1000000;
+
+    public GroupCommitOptions window(long window, TimeUnit unit) {
+        if(window < 0) {
+            throw new IllegalArgumentException("window can't be negative");
+        }
+        this.windowMicros = unit.toMicros(window);
+        return this;
+    }
+
+    public GroupCommitOptions maxBatchSize(int maxBatchSize) {
+        if(maxBatchSize <= 0) {
+            throw new IllegalArgumentException("maxBatchSize must be positive");
+        }
+        this.maxBatchSize = maxBatchSize;
+        return this;
+    }
+
+    public GroupCommitOptions maxBatchBytes(int maxBatchBytes) {
+        if(maxBatchBytes <= 0 || maxBatchBytes > BulkInsertOptions.TRANSACTION_SIZE_LIMIT) {
+            throw new IllegalArgumentException("maxBatchBytes must be between 1 and "
+                    + BulkInsertOptions.TRANSACTION_SIZE_LIMIT);
+        }
+        this.maxBatchBytes = maxBatchBytes;
+        return this;
+    }
+
+    public long getWindowMicros() {
+        return windowMicros;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public int getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+}
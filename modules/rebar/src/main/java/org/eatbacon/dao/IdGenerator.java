@@ -0,0 +1,29 @@
+package org.eatbacon.dao;
+
+import com.apple.foundationdb.Transaction;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Picks the unique id of a document inserted without one. See `IdGenerators` for the built-in strategies, and
+ * override `AbstractDao.createIdGenerator` to choose one
+ */
+public interface IdGenerator {
+    /**
+     * Returns a new unique id
+     *
+     * @param tr the transaction inserting the document
+     * @return
+     */
+    CompletableFuture<String> newId(Transaction tr);
+
+    /**
+     * Returns the length of the longest id this generator returns, which sizes documents before their id is
+     * picked. The default is the length of a UUID string
+     *
+     * @return
+     */
+    default int getMaxLength() {
+        return 36;
+    }
+}
@@ -0,0 +1,204 @@
+package org.eatbacon.dao;
+
+import com.apple.foundationdb.Database;
+import com.apple.foundationdb.MutationType;
+import com.apple.foundationdb.Transaction;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The built-in id strategies.
+ *
+ * `random` is the original strategy, a random number checked against the docSpace with a range read. The others
+ * never read the docSpace: `versionstamp` and `leased` take blocks of ids from the database once per block, and
+ * `timeOrdered` needs no database access at all.
+ */
+public final class IdGenerators {
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private IdGenerators() {
+    }
+
+    /**
+     * Random numbers below 100,000,000, read back to make sure no document has them
+     *
+     * @param md
+     * @return
+     */
+    public static IdGenerator random(TupleManager md) {
+        return new IdGenerator() {
+            @Override
+            public CompletableFuture<String> newId(Transaction tr) {
+                return md.getNewIDAsync(tr);
+            }
+
+            @Override
+            public int getMaxLength() {
+                return 8;
+            }
+        };
+    }
+
+    /**
+     * Ids made of a versionstamp and a sequence number. Each block commits a versionstamped write, whose
+     * versionstamp no other commit in the cluster shares, and then hands out `blockSize` ids under it without
+     * touching the database. The write never conflicts, so nodes don't contend for blocks. Ids sort by the
+     * commit order of their blocks
+     *
+     * @param md
+     * @param blockSize number of ids handed out per versionstamp
+     * @return
+     */
+    public static IdGenerator versionstamp(TupleManager md, int blockSize) {
+        byte[] key = md.getIdCounterKey("versionstamp");
+        // 10 bytes for the versionstamp, followed by its little-endian offset in the value
+        byte[] param = new byte[14];
+
+        return new BlockIdGenerator(blockSize) {
+            @Override
+            CompletableFuture<String> leaseBlock(Database db) {
+                return db.runAsync((Transaction tr) -> {
+                    tr.mutate(MutationType.SET_VERSIONSTAMPED_VALUE, key, param);
+                    return CompletableFuture.completedFuture(tr.getVersionstamp());
+                }).thenCompose(versionstamp -> versionstamp).thenApply(IdGenerators::toHex);
+            }
+
+            @Override
+            String format(String block, long sequence) {
+                return block + String.format("%08x", sequence);
+            }
+
+            @Override
+            public int getMaxLength() {
+                return 28;
+            }
+        };
+    }
+
+    /**
+     * Sequential numbers, leased from a counter of the collection in blocks of `blockSize`. Only the lease of a
+     * block reads and writes the counter, so nodes contend for it once per block rather than once per insert.
+     * Ids are unique but not ordered across nodes, and a block which isn't used up before the process stops
+     * leaves a gap
+     *
+     * @param md
+     * @param blockSize number of ids leased at a time
+     * @return
+     */
+    public static IdGenerator leased(TupleManager md, int blockSize) {
+        byte[] key = md.getIdCounterKey("counter");
+
+        return new BlockIdGenerator(blockSize) {
+            @Override
+            CompletableFuture<String> leaseBlock(Database db) {
+                return db.runAsync((Transaction tr) -> tr.get(key).thenApply(value -> {
+                    long start = value == null ? 0 : TupleManager.decodeCounter(value);
+                    tr.set(key, TupleManager.encodeCounter(start + blockSize));
+                    return String.valueOf(start);
+                }));
+            }
+
+            @Override
+            String format(String block, long sequence) {
+                return String.valueOf(Long.parseLong(block) + sequence);
+            }
+
+            @Override
+            public int getMaxLength() {
+                return String.valueOf(Long.MAX_VALUE).length();
+            }
+        };
+    }
+
+    /**
+     * Ids which sort by creation time: 12 hex digits of epoch millis, 6 of a sequence within this process
+     * and 8 random ones for the process. They need no database access, but inserts of new documents all
+     * land at the end of the docSpace, on the same shard
+     *
+     * @return
+     */
+    public static IdGenerator timeOrdered() {
+        String node = String.format("%08x", RANDOM.nextInt());
+        AtomicInteger sequence = new AtomicInteger(RANDOM.nextInt());
+
+        return new IdGenerator() {
+            @Override
+            public CompletableFuture<String> newId(Transaction tr) {
+                return CompletableFuture.completedFuture(String.format("%012x%06x%s",
+                        System.currentTimeMillis(), sequence.getAndIncrement() & 0xffffff, node));
+            }
+
+            @Override
+            public int getMaxLength() {
+                return 26;
+            }
+        };
+    }
+
+    /**
+     * Returns an id as long as the longest a generator returns, to size documents which don't have one yet
+     *
+     * @param idGenerator
+     * @return
+     */
+    static String placeholder(IdGenerator idGenerator) {
+        char[] id = new char[idGenerator.getMaxLength()];
+        Arrays.fill(id, '0');
+        return new String(id);
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder output = new StringBuilder(bytes.length * 2);
+        for(byte b : bytes) {
+            output.append(String.format("%02x", b & 0xff));
+        }
+        return output.toString();
+    }
+
+    /**
+     * Hands out the ids of a block until it runs out, then leases the next one. Callers which find the block
+     * exhausted share the same lease, and a lease which failed is tried again by the next caller
+     */
+    abstract static class BlockIdGenerator implements IdGenerator {
+        private final int blockSize;
+        private String block;
+        private long next;
+        private CompletableFuture<String> lease;
+
+        BlockIdGenerator(int blockSize) {
+            if(blockSize <= 0) {
+                throw new IllegalArgumentException("blockSize must be positive");
+            }
+            this.blockSize = blockSize;
+        }
+
+        abstract CompletableFuture<String> leaseBlock(Database db);
+
+        abstract String format(String block, long sequence);
+
+        @Override
+        public CompletableFuture<String> newId(Transaction tr) {
+            CompletableFuture<String> pending;
+            synchronized(this) {
+                if(block != null && next < blockSize) {
+                    return CompletableFuture.completedFuture(format(block, next++));
+                }
+                if(lease == null || lease.isDone()) {
+                    // a separate transaction, so the block is kept even if the insert is retried or fails
+                    lease = leaseBlock(tr.getDatabase()).thenApply(leased -> {
+                        synchronized(this) {
+                            block = leased;
+                            next = 0;
+                        }
+                        return leased;
+                    });
+                }
+                pending = lease;
+            }
+            return pending.thenCompose(leased -> newId(tr));
+        }
+    }
+}
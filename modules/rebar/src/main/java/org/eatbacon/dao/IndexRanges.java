@@ -0,0 +1,205 @@
+package org.eatbacon.dao;
+
+import com.apple.foundationdb.Range;
+import com.apple.foundationdb.subspace.Subspace;
+import com.apple.foundationdb.tuple.ByteArrayUtil;
+import com.apple.foundationdb.tuple.Tuple;
+import org.eatbacon.query.Query;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Builds the index key ranges holding exactly the values which match a query, so index reads need no filtering.
+ * Index keys keep the native type of their value, and each type sorts in its own segment of the index: every
+ * integer before every double. Numeric queries therefore read both segments, with their bounds converted to
+ * each, and other range queries stay within the segment of their type, as values of different types never
+ * compare
+ */
+final class IndexRanges {
+    // the first byte of each packed type, see the tuple layer's encoding
+    private static final byte STRING_START = 0x02;
+    private static final byte STRING_END = 0x03;
+    private static final byte INTEGER_START = 0x0b;
+    private static final byte INTEGER_END = 0x1e;
+    private static final byte DOUBLE_START = 0x21;
+    private static final byte DOUBLE_END = 0x22;
+    private static final byte BOOLEAN_START = 0x26;
+    private static final byte BOOLEAN_END = 0x28;
+
+    private final Subspace indexSpace;
+    private final Tuple path;
+    private final TreeMap<byte[], Range> ranges = new TreeMap<>(ByteArrayUtil::compareUnsigned);
+
+    private IndexRanges(Subspace indexSpace, Tuple path) {
+        this.indexSpace = indexSpace;
+        this.path = path;
+    }
+
+    /**
+     * Returns the ranges to read for a query, in key order and without overlaps
+     *
+     * @param indexSpace
+     * @param query
+     * @return
+     */
+    static List<Range> forQuery(Subspace indexSpace, Query query) {
+        IndexRanges output = new IndexRanges(indexSpace, query.getPathAsTuple());
+        Object value = query.getValue();
+        switch (query.getOperator()) {
+            case IN:
+                query.getValues().forEach(output::addEqual);
+                break;
+            case LT:
+                output.addBetween(null, false, value, false);
+                break;
+            case LTE:
+                output.addBetween(null, false, value, true);
+                break;
+            case GT:
+                output.addBetween(value, false, null, false);
+                break;
+            case GTE:
+                output.addBetween(value, true, null, false);
+                break;
+            case BETWEEN:
+                output.addBetween(value, true, query.getUpperValue(), true);
+                break;
+            default:
+                output.addEqual(value);
+        }
+        return new ArrayList<>(output.ranges.values());
+    }
+
+    // numbers are equal by value, so an integral value is also read as a double and the other way around
+    private void addEqual(Object value) {
+        if(value == null) {
+            return;
+        }
+        add(indexSpace.range(path.addObject(value)));
+        if(value instanceof Long) {
+            long number = (Long) value;
+            if((long) (double) number == number) {
+                add(indexSpace.range(path.add((double) number)));
+            }
+        }
+        else if(value instanceof Double) {
+            double number = (Double) value;
+            if(number >= Long.MIN_VALUE && number <= Long.MAX_VALUE
+                    && Double.compare(number, (double) (long) number) == 0) {
+                add(indexSpace.range(path.add((long) number)));
+            }
+        }
+    }
+
+    /**
+     * Adds the ranges between two bounds, either of which may be missing. A present bound which is null, or
+     * bounds which can't be compared with each other, match nothing
+     */
+    private void addBetween(Object lower, boolean lowerInclusive, Object upper, boolean upperInclusive) {
+        Object bound = lower != null ? lower : upper;
+        if(bound == null) {
+            return;
+        }
+        if(bound instanceof Number) {
+            if(lower != null && !(lower instanceof Number) || upper != null && !(upper instanceof Number)) {
+                return;
+            }
+            addIntegers(lower, lowerInclusive, upper, upperInclusive);
+            addDoubles(lower, lowerInclusive, upper, upperInclusive);
+        }
+        else if(bound instanceof String || bound instanceof Boolean) {
+            if(lower != null && upper != null && !lower.getClass().equals(upper.getClass())) {
+                return;
+            }
+            boolean string = bound instanceof String;
+            addSegment(string ? STRING_START : BOOLEAN_START, string ? STRING_END : BOOLEAN_END,
+                    lower, lowerInclusive, upper, upperInclusive);
+        }
+        // other values, such as byte arrays, aren't ordered
+    }
+
+    private void addIntegers(Object lower, boolean lowerInclusive, Object upper, boolean upperInclusive) {
+        BigInteger low = null;
+        if(lower instanceof Double) {
+            double number = (Double) lower;
+            if(Double.isNaN(number) || number == Double.POSITIVE_INFINITY) {
+                // every integer sorts before
+                return;
+            }
+            if(number != Double.NEGATIVE_INFINITY) {
+                BigDecimal exact = new BigDecimal(number);
+                low = lowerInclusive ? exact.setScale(0, RoundingMode.CEILING).toBigIntegerExact()
+                        : exact.setScale(0, RoundingMode.FLOOR).toBigIntegerExact().add(BigInteger.ONE);
+                lowerInclusive = true;
+            }
+        }
+        else if(lower != null) {
+            low = toBigInteger(lower);
+        }
+
+        BigInteger high = null;
+        if(upper instanceof Double) {
+            double number = (Double) upper;
+            if(number == Double.NEGATIVE_INFINITY) {
+                return;
+            }
+            if(!Double.isNaN(number) && number != Double.POSITIVE_INFINITY) {
+                BigDecimal exact = new BigDecimal(number);
+                high = upperInclusive ? exact.setScale(0, RoundingMode.FLOOR).toBigIntegerExact()
+                        : exact.setScale(0, RoundingMode.CEILING).toBigIntegerExact().subtract(BigInteger.ONE);
+                upperInclusive = true;
+            }
+        }
+        else if(upper != null) {
+            high = toBigInteger(upper);
+        }
+
+        addSegment(INTEGER_START, INTEGER_END, low, lowerInclusive, high, upperInclusive);
+    }
+
+    private void addDoubles(Object lower, boolean lowerInclusive, Object upper, boolean upperInclusive) {
+        // queries compare integers with doubles as doubles
+        addSegment(DOUBLE_START, DOUBLE_END, lower == null ? null : ((Number) lower).doubleValue(), lowerInclusive,
+                upper == null ? null : ((Number) upper).doubleValue(), upperInclusive);
+    }
+
+    /**
+     * Adds the part of a type's segment between two bounds of that type
+     */
+    private void addSegment(byte start, byte end, Object lower, boolean lowerInclusive, Object upper,
+                            boolean upperInclusive) {
+        byte[] prefix = indexSpace.pack(path);
+        byte[] begin;
+        if(lower == null) {
+            begin = ByteArrayUtil.join(prefix, new byte[]{start});
+        }
+        else {
+            begin = lowerInclusive ? indexSpace.pack(path.addObject(lower))
+                    : indexSpace.range(path.addObject(lower)).end;
+        }
+        byte[] finish;
+        if(upper == null) {
+            finish = ByteArrayUtil.join(prefix, new byte[]{end});
+        }
+        else {
+            finish = upperInclusive ? indexSpace.range(path.addObject(upper)).end
+                    : indexSpace.pack(path.addObject(upper));
+        }
+        if(ByteArrayUtil.compareUnsigned(begin, finish) < 0) {
+            add(new Range(begin, finish));
+        }
+    }
+
+    private void add(Range range) {
+        ranges.put(range.begin, range);
+    }
+
+    private static BigInteger toBigInteger(Object number) {
+        return number instanceof BigInteger ? (BigInteger) number : BigInteger.valueOf(((Number) number).longValue());
+    }
+}
@@ -0,0 +1,315 @@
+package org.eatbacon.dao;
+
+import com.apple.foundationdb.DatabaseOptions;
+import com.apple.foundationdb.FDBException;
+import com.apple.foundationdb.KeyValue;
+import com.apple.foundationdb.MutationType;
+import com.apple.foundationdb.Range;
+import com.apple.foundationdb.Transaction;
+import com.apple.foundationdb.tuple.ByteArrayUtil;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A database held in memory, for tests, benchmarks and embedded use. Keys are kept in order in a
+ * `ConcurrentSkipListMap`, each with the values it had at recent versions, so a transaction reads a consistent
+ * snapshot at its read version. Commits are serialized and checked optimistically: a transaction fails with
+ * `not_committed` when a key it read, other than by a snapshot read, was written after its read version, and
+ * the retry loops retry it like FDB would. Nothing is persisted.
+ *
+ * Only what the DAOs use is implemented: the atomic mutations supported by `mutate`, and no watches. Anything
+ * else fails with `UnsupportedOperationException`
+ */
+class MemoryDatabase extends AbstractDatabase {
+    // versions advance a million a second, as in FDB, and values are kept for five seconds of versions
+    static final long VERSIONS_PER_MILLI = 1000;
+    static final long MVCC_WINDOW = 5000 * VERSIONS_PER_MILLI;
+
+    // FDB's largest value
+    static final int VALUE_SIZE_LIMIT = 100000;
+
+    // how many commits happen between sweeps of the cleared keys
+    private static final int SWEEP_INTERVAL = 1024;
+
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "rebar-memory");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ConcurrentSkipListMap<byte[], Version> data = new ConcurrentSkipListMap<>(
+            ByteArrayUtil::compareUnsigned);
+    private final DatabaseOptions options = new DatabaseOptions((code, param) -> {});
+
+    // the last committed version. Written under the commit lock once every value of the commit is in place
+    private volatile long version = System.currentTimeMillis() * VERSIONS_PER_MILLI;
+    private long commits;
+
+    /**
+     * A value of a key written at a version, or null when the key was cleared, linked to the value it replaced
+     */
+    static final class Version {
+        final long version;
+        final byte[] value;
+        volatile Version previous;
+
+        Version(long version, byte[] value, Version previous) {
+            this.version = version;
+            this.value = value;
+            this.previous = previous;
+        }
+
+        byte[] at(long readVersion) {
+            Version v = this;
+            while(v != null && v.version > readVersion) {
+                v = v.previous;
+            }
+            return v == null ? null : v.value;
+        }
+    }
+
+    @Override
+    public Transaction createTransaction(Executor e) {
+        return new MemoryTransaction(this, e);
+    }
+
+    @Override
+    public DatabaseOptions options() {
+        return options;
+    }
+
+    @Override
+    public Executor getExecutor() {
+        return EXECUTOR;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    // fails reads at versions whose values may have been dropped, as FDB does
+    void checkReadVersion(long readVersion) {
+        if(readVersion < version - MVCC_WINDOW) {
+            throw new FDBException("Transaction is too old to perform reads or be committed", 1007);
+        }
+    }
+
+    NavigableMap<byte[], Version> getData() {
+        return data;
+    }
+
+    /**
+     * Checks the read conflict ranges of a transaction and applies its writes at a new version
+     *
+     * @param readVersion
+     * @param readConflicts ranges read other than by snapshot reads
+     * @param clears ranges cleared, applied before the writes
+     * @param writes the values written, null for cleared keys, in key order
+     * @param mutations atomic mutations whose result depends on the stored value, applied in order
+     * @return the commit version
+     */
+    synchronized long commit(long readVersion, List<Range> readConflicts, Map<byte[], byte[]> clears,
+                             Map<byte[], byte[]> writes, List<Mutation> mutations) {
+        checkReadVersion(readVersion);
+        for(Range range : readConflicts) {
+            for(Version head : data.subMap(range.begin, true, range.end, false).values()) {
+                if(head.version > readVersion) {
+                    throw new FDBException("Transaction not committed due to conflict with another transaction",
+                            1020);
+                }
+            }
+        }
+
+        long next = Math.max(version + 1, System.currentTimeMillis() * VERSIONS_PER_MILLI);
+        long horizon = next - MVCC_WINDOW;
+        byte[] versionstamp = toVersionstamp(next);
+
+        for(Map.Entry<byte[], byte[]> clear : clears.entrySet()) {
+            for(Map.Entry<byte[], Version> entry : data.subMap(clear.getKey(), true, clear.getValue(), false)
+                    .entrySet()) {
+                if(entry.getValue().value != null) {
+                    data.put(entry.getKey(), prune(new Version(next, null, entry.getValue()), horizon));
+                }
+            }
+        }
+        for(Map.Entry<byte[], byte[]> write : writes.entrySet()) {
+            put(write.getKey(), write.getValue(), next, horizon);
+        }
+        for(Mutation mutation : mutations) {
+            if(mutation.type == MutationType.SET_VERSIONSTAMPED_VALUE) {
+                put(mutation.key, fillVersionstamp(mutation.param, versionstamp), next, horizon);
+            }
+            else {
+                Version head = data.get(mutation.key);
+                put(mutation.key, mutate(mutation.type, head == null ? null : head.value, mutation.param), next,
+                        horizon);
+            }
+        }
+
+        version = next;
+        if(++commits % SWEEP_INTERVAL == 0) {
+            sweep(horizon);
+        }
+        return next;
+    }
+
+    private void put(byte[] key, byte[] value, long at, long horizon) {
+        Version head = data.get(key);
+        if(value == null && (head == null || head.value == null)) {
+            return;
+        }
+        data.put(key, prune(new Version(at, value, head), horizon));
+    }
+
+    // drops the values no read can see any more: those older than the newest one at or below the horizon
+    private static Version prune(Version head, long horizon) {
+        for(Version v = head; v != null; v = v.previous) {
+            if(v.version <= horizon) {
+                v.previous = null;
+                break;
+            }
+        }
+        return head;
+    }
+
+    // removes keys which have been cleared for longer than any read can go back
+    private void sweep(long horizon) {
+        Iterator<Map.Entry<byte[], Version>> entries = data.entrySet().iterator();
+        while(entries.hasNext()) {
+            Version head = prune(entries.next().getValue(), horizon);
+            if(head.value == null && head.version <= horizon) {
+                entries.remove();
+            }
+        }
+    }
+
+    /**
+     * An atomic mutation waiting for the value it applies to
+     */
+    static final class Mutation {
+        final MutationType type;
+        final byte[] key;
+        final byte[] param;
+
+        Mutation(MutationType type, byte[] key, byte[] param) {
+            this.type = type;
+            this.key = key;
+            this.param = param;
+        }
+    }
+
+    /**
+     * Applies an atomic mutation to a value, null when the key has no value, as FDB does. Only the mutations
+     * the DAOs use are supported: ADD, MAX and MIN, and SET_VERSIONSTAMPED_VALUE at commit
+     *
+     * @param type
+     * @param value
+     * @param param
+     * @return
+     */
+    static byte[] mutate(MutationType type, byte[] value, byte[] param) {
+        switch (type) {
+            case ADD: {
+                byte[] output = new byte[param.length];
+                int carry = 0;
+                for(int i = 0; i < param.length; i++) {
+                    int sum = (value != null && i < value.length ? value[i] & 0xff : 0) + (param[i] & 0xff) + carry;
+                    output[i] = (byte) sum;
+                    carry = sum >>> 8;
+                }
+                return output;
+            }
+            case MAX:
+            case MIN: {
+                if(value == null) {
+                    return param;
+                }
+                byte[] resized = Arrays.copyOf(value, param.length);
+                int compared = compareLittleEndian(resized, param);
+                return (type == MutationType.MAX) == (compared >= 0) ? resized : param;
+            }
+            default:
+                throw new UnsupportedOperationException(type + " isn't supported in memory");
+        }
+    }
+
+    private static int compareLittleEndian(byte[] a, byte[] b) {
+        for(int i = a.length - 1; i >= 0; i--) {
+            int compared = Integer.compare(a[i] & 0xff, b[i] & 0xff);
+            if(compared != 0) {
+                return compared;
+            }
+        }
+        return 0;
+    }
+
+    // the commit version, big-endian, and the order of the transaction in its batch, which is always 0 here
+    static byte[] toVersionstamp(long version) {
+        byte[] versionstamp = new byte[10];
+        for(int i = 0; i < 8; i++) {
+            versionstamp[i] = (byte) (version >>> (56 - 8 * i));
+        }
+        return versionstamp;
+    }
+
+    // the last four bytes are the little-endian offset of the versionstamp in the bytes before them
+    private static byte[] fillVersionstamp(byte[] bytes, byte[] versionstamp) {
+        int offset = (bytes[bytes.length - 4] & 0xff) | (bytes[bytes.length - 3] & 0xff) << 8
+                | (bytes[bytes.length - 2] & 0xff) << 16 | (bytes[bytes.length - 1] & 0xff) << 24;
+        byte[] output = Arrays.copyOf(bytes, bytes.length - 4);
+        System.arraycopy(versionstamp, 0, output, offset, versionstamp.length);
+        return output;
+    }
+
+    /**
+     * Reads the values of a range at a version, skipping cleared keys
+     *
+     * @param begin
+     * @param end
+     * @param readVersion
+     * @param reverse
+     * @return
+     */
+    Iterator<KeyValue> scan(byte[] begin, byte[] end, long readVersion, boolean reverse) {
+        NavigableMap<byte[], Version> range = data.subMap(begin, true, end, false);
+        Iterator<Map.Entry<byte[], Version>> entries = (reverse ? range.descendingMap() : range).entrySet().iterator();
+        return new Iterator<KeyValue>() {
+            private KeyValue next = advance();
+
+            private KeyValue advance() {
+                while(entries.hasNext()) {
+                    Map.Entry<byte[], Version> entry = entries.next();
+                    byte[] value = entry.getValue().at(readVersion);
+                    if(value != null) {
+                        return new KeyValue(entry.getKey(), value);
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public KeyValue next() {
+                KeyValue output = next;
+                next = advance();
+                return output;
+            }
+        };
+    }
+}
@@ -0,0 +1,182 @@
+package org.eatbacon.dao;
+
+import com.apple.foundationdb.KeySelector;
+import com.apple.foundationdb.KeyValue;
+import com.apple.foundationdb.Range;
+import com.apple.foundationdb.ReadTransaction;
+import com.apple.foundationdb.StreamingMode;
+import com.apple.foundationdb.async.AsyncIterable;
+import com.apple.foundationdb.async.AsyncIterator;
+import com.apple.foundationdb.async.AsyncUtil;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * The reads of a `MemoryTransaction`, or of its snapshot, in the forms the client offers. Ranges are read when
+ * their results are first used
+ */
+abstract class MemoryReadTransaction implements ReadTransaction {
+    abstract byte[] read(byte[] key);
+
+    abstract List<KeyValue> readRange(KeySelector begin, KeySelector end, int limit, boolean reverse);
+
+    abstract byte[] resolve(KeySelector selector);
+
+    @Override
+    public CompletableFuture<byte[]> get(byte[] key) {
+        return attempt(() -> read(key));
+    }
+
+    @Override
+    public CompletableFuture<byte[]> getKey(KeySelector selector) {
+        return attempt(() -> resolve(selector));
+    }
+
+    @Override
+    public AsyncIterable<KeyValue> getRange(KeySelector begin, KeySelector end, int limit, boolean reverse,
+                                            StreamingMode mode) {
+        return new Results(() -> readRange(begin, end, limit, reverse));
+    }
+
+    @Override
+    public AsyncIterable<KeyValue> getRange(KeySelector begin, KeySelector end) {
+        return getRange(begin, end, ROW_LIMIT_UNLIMITED);
+    }
+
+    @Override
+    public AsyncIterable<KeyValue> getRange(KeySelector begin, KeySelector end, int limit) {
+        return getRange(begin, end, limit, false);
+    }
+
+    @Override
+    public AsyncIterable<KeyValue> getRange(KeySelector begin, KeySelector end, int limit, boolean reverse) {
+        return getRange(begin, end, limit, reverse, StreamingMode.ITERATOR);
+    }
+
+    @Override
+    public AsyncIterable<KeyValue> getRange(byte[] begin, byte[] end) {
+        return getRange(begin, end, ROW_LIMIT_UNLIMITED);
+    }
+
+    @Override
+    public AsyncIterable<KeyValue> getRange(byte[] begin, byte[] end, int limit) {
+        return getRange(begin, end, limit, false);
+    }
+
+    @Override
+    public AsyncIterable<KeyValue> getRange(byte[] begin, byte[] end, int limit, boolean reverse) {
+        return getRange(begin, end, limit, reverse, StreamingMode.ITERATOR);
+    }
+
+    @Override
+    public AsyncIterable<KeyValue> getRange(byte[] begin, byte[] end, int limit, boolean reverse,
+                                            StreamingMode mode) {
+        return getRange(KeySelector.firstGreaterOrEqual(begin), KeySelector.firstGreaterOrEqual(end), limit,
+                reverse, mode);
+    }
+
+    @Override
+    public AsyncIterable<KeyValue> getRange(Range range) {
+        return getRange(range.begin, range.end);
+    }
+
+    @Override
+    public AsyncIterable<KeyValue> getRange(Range range, int limit) {
+        return getRange(range.begin, range.end, limit);
+    }
+
+    @Override
+    public AsyncIterable<KeyValue> getRange(Range range, int limit, boolean reverse) {
+        return getRange(range.begin, range.end, limit, reverse);
+    }
+
+    @Override
+    public AsyncIterable<KeyValue> getRange(Range range, int limit, boolean reverse, StreamingMode mode) {
+        return getRange(range.begin, range.end, limit, reverse, mode);
+    }
+
+    @Override
+    public <T> T read(Function<? super ReadTransaction, T> retryable) {
+        return retryable.apply(this);
+    }
+
+    @Override
+    public <T> CompletableFuture<T> readAsync(
+            Function<? super ReadTransaction, ? extends CompletableFuture<T>> retryable) {
+        return AsyncUtil.applySafely(retryable, this);
+    }
+
+    static <T> CompletableFuture<T> attempt(Supplier<T> supplier) {
+        try {
+            return CompletableFuture.completedFuture(supplier.get());
+        }
+        catch (RuntimeException e) {
+            return failed(e);
+        }
+    }
+
+    static <T> CompletableFuture<T> failed(Throwable e) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+
+    /**
+     * The results of a range read
+     */
+    private static class Results implements AsyncIterable<KeyValue> {
+        private final Supplier<List<KeyValue>> read;
+
+        Results(Supplier<List<KeyValue>> read) {
+            this.read = read;
+        }
+
+        @Override
+        public CompletableFuture<List<KeyValue>> asList() {
+            return attempt(read);
+        }
+
+        @Override
+        public AsyncIterator<KeyValue> iterator() {
+            return new AsyncIterator<KeyValue>() {
+                private Iterator<KeyValue> results;
+
+                private Iterator<KeyValue> results() {
+                    if(results == null) {
+                        results = read.get().iterator();
+                    }
+                    return results;
+                }
+
+                @Override
+                public CompletableFuture<Boolean> onHasNext() {
+                    return attempt(this::hasNext);
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return results().hasNext();
+                }
+
+                @Override
+                public KeyValue next() {
+                    if(!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return results().next();
+                }
+
+                @Override
+                public void cancel() {
+                    results = Collections.emptyIterator();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,532 @@
+package org.eatbacon.dao;
+
+import com.apple.foundationdb.Database;
+import com.apple.foundationdb.FDBException;
+import com.apple.foundationdb.KeySelector;
+import com.apple.foundationdb.KeyValue;
+import com.apple.foundationdb.MutationType;
+import com.apple.foundationdb.Range;
+import com.apple.foundationdb.ReadTransaction;
+import com.apple.foundationdb.Transaction;
+import com.apple.foundationdb.TransactionOptions;
+import com.apple.foundationdb.async.AsyncUtil;
+import com.apple.foundationdb.tuple.ByteArrayUtil;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * A transaction of a `MemoryDatabase`. Writes are buffered and read back by the transaction's own reads, and are
+ * applied when it commits. Write conflict ranges added by hand are ignored: conflicts are found from the keys
+ * actually written
+ */
+class MemoryTransaction extends MemoryReadTransaction implements Transaction {
+    private static final byte[] BEGIN = new byte[0];
+    private static final byte[] END = new byte[]{(byte) 0xff};
+
+    // option codes of the FDB client
+    private static final int TIMEOUT_OPTION = 500;
+    private static final int RETRY_LIMIT_OPTION = 501;
+
+    // KeySelector doesn't expose whether it includes its key
+    private static final Method OR_EQUAL;
+
+    static {
+        try {
+            OR_EQUAL = KeySelector.class.getDeclaredMethod("orEqual");
+            OR_EQUAL.setAccessible(true);
+        }
+        catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private final MemoryDatabase db;
+    private final Executor executor;
+    private final int retries;
+    private final long startedAt;
+    private final TransactionOptions options = new TransactionOptions(this::setOption);
+    private final ReadTransaction snapshot = new Snapshot();
+
+    private long readVersion = -1;
+    private long timeoutMillis;
+    private long retryLimit = -1;
+
+    // buffered writes by key, and the cleared ranges by their begin keys
+    private final TreeMap<byte[], Write> writes = new TreeMap<>(ByteArrayUtil::compareUnsigned);
+    private final TreeMap<byte[], byte[]> clears = new TreeMap<>(ByteArrayUtil::compareUnsigned);
+    private final List<MemoryDatabase.Mutation> versionstamped = new ArrayList<>();
+    private final List<Range> readConflicts = new ArrayList<>();
+
+    private final CompletableFuture<byte[]> versionstamp = new CompletableFuture<>();
+    private Long committedVersion;
+    private boolean cancelled;
+
+    MemoryTransaction(MemoryDatabase db, Executor executor) {
+        this(db, executor, 0, System.currentTimeMillis());
+    }
+
+    private MemoryTransaction(MemoryDatabase db, Executor executor, int retries, long startedAt) {
+        this.db = db;
+        this.executor = executor;
+        this.retries = retries;
+        this.startedAt = startedAt;
+    }
+
+    /**
+     * A buffered write of a key: its new value, null when cleared, or the atomic mutations to apply to its
+     * stored value
+     */
+    private static final class Write {
+        final byte[] value;
+        final List<MemoryDatabase.Mutation> mutations;
+
+        Write(byte[] value, List<MemoryDatabase.Mutation> mutations) {
+            this.value = value;
+            this.mutations = mutations;
+        }
+
+        byte[] apply(byte[] stored) {
+            if(mutations == null) {
+                return value;
+            }
+            for(MemoryDatabase.Mutation mutation : mutations) {
+                stored = MemoryDatabase.mutate(mutation.type, stored, mutation.param);
+            }
+            return stored;
+        }
+    }
+
+    private void setOption(int code, byte[] param) {
+        if(code == TIMEOUT_OPTION) {
+            timeoutMillis = decodeLong(param);
+        }
+        else if(code == RETRY_LIMIT_OPTION) {
+            retryLimit = decodeLong(param);
+        }
+    }
+
+    private static long decodeLong(byte[] param) {
+        long value = 0;
+        for(int i = param.length - 1; i >= 0; i--) {
+            value = (value << 8) | (param[i] & 0xff);
+        }
+        return value;
+    }
+
+    private boolean isTimedOut() {
+        return timeoutMillis > 0 && System.currentTimeMillis() - startedAt >= timeoutMillis;
+    }
+
+    private void checkUsable() {
+        if(cancelled) {
+            throw new FDBException("Operation aborted because the transaction was cancelled", 1025);
+        }
+        if(isTimedOut()) {
+            throw new FDBException("Operation aborted because the transaction timed out", 1031);
+        }
+    }
+
+    private long readVersion() {
+        if(readVersion < 0) {
+            readVersion = db.getVersion();
+        }
+        return readVersion;
+    }
+
+    private boolean isCleared(byte[] key) {
+        Map.Entry<byte[], byte[]> clear = clears.floorEntry(key);
+        return clear != null && ByteArrayUtil.compareUnsigned(key, clear.getValue()) < 0;
+    }
+
+    private static byte[] keyAfter(byte[] key) {
+        return ByteArrayUtil.join(key, new byte[]{0x00});
+    }
+
+    synchronized byte[] read(byte[] key, boolean snapshot) {
+        checkUsable();
+        Write write = writes.get(key);
+        if(write != null && write.mutations == null) {
+            return write.value;
+        }
+        if(isCleared(key)) {
+            return null;
+        }
+
+        long version = readVersion();
+        db.checkReadVersion(version);
+        MemoryDatabase.Version stored = db.getData().get(key);
+        byte[] value = stored == null ? null : stored.at(version);
+        // values may have been dropped while reading at a version about to expire
+        db.checkReadVersion(version);
+        if(!snapshot) {
+            readConflicts.add(new Range(key, keyAfter(key)));
+        }
+        return write == null ? value : write.apply(value);
+    }
+
+    synchronized List<KeyValue> readRange(byte[] begin, byte[] end, int limit, boolean reverse, boolean snapshot) {
+        checkUsable();
+        if(ByteArrayUtil.compareUnsigned(begin, end) >= 0) {
+            return Collections.emptyList();
+        }
+
+        long version = readVersion();
+        db.checkReadVersion(version);
+        Iterator<KeyValue> stored = db.scan(begin, end, version, reverse);
+        NavigableMap<byte[], Write> buffered = writes.subMap(begin, true, end, false);
+        Iterator<Map.Entry<byte[], Write>> local = (reverse ? buffered.descendingMap() : buffered).entrySet()
+                .iterator();
+
+        List<KeyValue> output = new ArrayList<>();
+        KeyValue nextStored = stored.hasNext() ? stored.next() : null;
+        Map.Entry<byte[], Write> nextLocal = local.hasNext() ? local.next() : null;
+        while((nextStored != null || nextLocal != null) && (limit <= 0 || output.size() < limit)) {
+            int compared = nextStored == null ? 1 : nextLocal == null ? -1
+                    : ByteArrayUtil.compareUnsigned(nextStored.getKey(), nextLocal.getKey()) * (reverse ? -1 : 1);
+            byte[] key;
+            byte[] value;
+            if(compared < 0) {
+                key = nextStored.getKey();
+                value = isCleared(key) ? null : nextStored.getValue();
+                nextStored = stored.hasNext() ? stored.next() : null;
+            }
+            else {
+                key = nextLocal.getKey();
+                value = nextLocal.getValue().apply(compared == 0 ? nextStored.getValue() : null);
+                if(compared == 0) {
+                    nextStored = stored.hasNext() ? stored.next() : null;
+                }
+                nextLocal = local.hasNext() ? local.next() : null;
+            }
+            if(value != null) {
+                output.add(new KeyValue(key, value));
+            }
+        }
+        db.checkReadVersion(version);
+
+        if(!snapshot) {
+            // a limited read only depends on the keys up to the last one returned
+            if(limit > 0 && output.size() == limit) {
+                byte[] last = output.get(output.size() - 1).getKey();
+                readConflicts.add(reverse ? new Range(last, end) : new Range(begin, keyAfter(last)));
+            }
+            else {
+                readConflicts.add(new Range(begin, end));
+            }
+        }
+        return output;
+    }
+
+    byte[] resolve(KeySelector selector, boolean snapshot) {
+        byte[] key = selector.getKey();
+        boolean orEqual = orEqual(selector);
+        int offset = selector.getOffset();
+        if(offset >= 1) {
+            List<KeyValue> kvs = readRange(orEqual ? keyAfter(key) : key, END, offset, false, snapshot);
+            return kvs.size() == offset ? kvs.get(offset - 1).getKey() : END;
+        }
+        List<KeyValue> kvs = readRange(BEGIN, orEqual ? keyAfter(key) : key, 1 - offset, true, snapshot);
+        return kvs.size() == 1 - offset ? kvs.get(kvs.size() - 1).getKey() : BEGIN;
+    }
+
+    // resolves a range boundary, which for the usual selectors is a key itself
+    byte[] boundary(KeySelector selector, boolean snapshot) {
+        if(selector.getOffset() == 1) {
+            return orEqual(selector) ? keyAfter(selector.getKey()) : selector.getKey();
+        }
+        return resolve(selector, snapshot);
+    }
+
+    private static boolean orEqual(KeySelector selector) {
+        try {
+            return (Boolean) OR_EQUAL.invoke(selector);
+        }
+        catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    byte[] read(byte[] key) {
+        return read(key, false);
+    }
+
+    @Override
+    List<KeyValue> readRange(KeySelector begin, KeySelector end, int limit, boolean reverse) {
+        return readRange(boundary(begin, false), boundary(end, false), limit, reverse, false);
+    }
+
+    @Override
+    byte[] resolve(KeySelector selector) {
+        return resolve(selector, false);
+    }
+
+    @Override
+    public ReadTransaction snapshot() {
+        return snapshot;
+    }
+
+    @Override
+    public synchronized CompletableFuture<Long> getReadVersion() {
+        return attempt(this::readVersion);
+    }
+
+    @Override
+    public synchronized void setReadVersion(long version) {
+        readVersion = version;
+    }
+
+    @Override
+    public synchronized void addReadConflictRange(byte[] keyBegin, byte[] keyEnd) {
+        readConflicts.add(new Range(keyBegin, keyEnd));
+    }
+
+    @Override
+    public void addReadConflictKey(byte[] key) {
+        addReadConflictRange(key, keyAfter(key));
+    }
+
+    @Override
+    public void addWriteConflictRange(byte[] keyBegin, byte[] keyEnd) {
+    }
+
+    @Override
+    public void addWriteConflictKey(byte[] key) {
+    }
+
+    @Override
+    public synchronized void set(byte[] key, byte[] value) {
+        checkUsable();
+        writes.put(key, new Write(value, null));
+        dropVersionstampedValues(key, keyAfter(key));
+    }
+
+    @Override
+    public synchronized void clear(byte[] key) {
+        checkUsable();
+        writes.put(key, new Write(null, null));
+        dropVersionstampedValues(key, keyAfter(key));
+    }
+
+    @Override
+    public synchronized void clear(byte[] beginKey, byte[] endKey) {
+        checkUsable();
+        if(ByteArrayUtil.compareUnsigned(beginKey, endKey) >= 0) {
+            return;
+        }
+        writes.subMap(beginKey, true, endKey, false).clear();
+        dropVersionstampedValues(beginKey, endKey);
+
+        // merge with the cleared ranges it overlaps or touches
+        byte[] begin = beginKey;
+        byte[] end = endKey;
+        Map.Entry<byte[], byte[]> before = clears.floorEntry(begin);
+        if(before != null && ByteArrayUtil.compareUnsigned(before.getValue(), begin) >= 0) {
+            begin = before.getKey();
+            end = ByteArrayUtil.compareUnsigned(before.getValue(), end) > 0 ? before.getValue() : end;
+        }
+        Iterator<Map.Entry<byte[], byte[]>> after = clears.tailMap(begin, true).entrySet().iterator();
+        while(after.hasNext()) {
+            Map.Entry<byte[], byte[]> clear = after.next();
+            if(ByteArrayUtil.compareUnsigned(clear.getKey(), end) > 0) {
+                break;
+            }
+            if(ByteArrayUtil.compareUnsigned(clear.getValue(), end) > 0) {
+                end = clear.getValue();
+            }
+            after.remove();
+        }
+        clears.put(begin, end);
+    }
+
+    @Override
+    public void clear(Range range) {
+        clear(range.begin, range.end);
+    }
+
+    // deprecated by the client, but still part of the interface
+    @Override
+    @SuppressWarnings("deprecation")
+    public void clearRangeStartsWith(byte[] prefix) {
+        clear(Range.startsWith(prefix));
+    }
+
+    // a later write of a key replaces the versionstamped value set before it
+    private void dropVersionstampedValues(byte[] begin, byte[] end) {
+        versionstamped.removeIf(mutation -> mutation.type == MutationType.SET_VERSIONSTAMPED_VALUE
+                && ByteArrayUtil.compareUnsigned(mutation.key, begin) >= 0
+                && ByteArrayUtil.compareUnsigned(mutation.key, end) < 0);
+    }
+
+    @Override
+    public synchronized void mutate(MutationType optype, byte[] key, byte[] param) {
+        checkUsable();
+        MemoryDatabase.Mutation mutation = new MemoryDatabase.Mutation(optype, key, param);
+        if(optype == MutationType.SET_VERSIONSTAMPED_VALUE) {
+            versionstamped.add(mutation);
+            return;
+        }
+        // fails now, rather than at commit, for mutations which aren't supported
+        MemoryDatabase.mutate(optype, null, param);
+
+        Write write = writes.get(key);
+        if(write == null && isCleared(key)) {
+            writes.put(key, new Write(MemoryDatabase.mutate(optype, null, param), null));
+        }
+        else if(write == null) {
+            writes.put(key, new Write(null, new ArrayList<>(Collections.singletonList(mutation))));
+        }
+        else if(write.mutations == null) {
+            writes.put(key, new Write(MemoryDatabase.mutate(optype, write.value, param), null));
+        }
+        else {
+            write.mutations.add(mutation);
+        }
+    }
+
+    @Override
+    public synchronized CompletableFuture<Void> commit() {
+        try {
+            checkUsable();
+            if(writes.isEmpty() && clears.isEmpty() && versionstamped.isEmpty()) {
+                committedVersion = -1L;
+                versionstamp.completeExceptionally(new FDBException("Operation issued while a commit was "
+                        + "outstanding or of a read-only transaction", 2000));
+                return CompletableFuture.completedFuture(null);
+            }
+
+            Map<byte[], byte[]> values = new TreeMap<>(ByteArrayUtil::compareUnsigned);
+            List<MemoryDatabase.Mutation> mutations = new ArrayList<>();
+            for(Map.Entry<byte[], Write> write : writes.entrySet()) {
+                if(write.getValue().mutations == null) {
+                    values.put(write.getKey(), write.getValue().value);
+                }
+                else {
+                    mutations.addAll(write.getValue().mutations);
+                }
+            }
+            mutations.addAll(versionstamped);
+
+            committedVersion = db.commit(readVersion(), readConflicts, clears, values, mutations);
+            versionstamp.complete(MemoryDatabase.toVersionstamp(committedVersion));
+            return CompletableFuture.completedFuture(null);
+        }
+        catch (FDBException e) {
+            versionstamp.completeExceptionally(e);
+            return failed(e);
+        }
+    }
+
+    @Override
+    public synchronized Long getCommittedVersion() {
+        return committedVersion == null ? -1L : committedVersion;
+    }
+
+    @Override
+    public CompletableFuture<byte[]> getVersionstamp() {
+        return versionstamp;
+    }
+
+    @Override
+    public synchronized CompletableFuture<Transaction> onError(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if(cause instanceof FDBException && isRetryable(((FDBException) cause).getCode())
+                && (retryLimit < 0 || retries < retryLimit) && !isTimedOut()) {
+            // the retry starts over with a new read version and options, as the client's does
+            return CompletableFuture.completedFuture(new MemoryTransaction(db, executor, retries + 1, startedAt));
+        }
+        return failed(cause);
+    }
+
+    // `FDBException.isRetryable` asks the native client; these are the retryable errors raised here
+    private static boolean isRetryable(int code) {
+        return code == 1007 || code == 1020;
+    }
+
+    @Override
+    public synchronized void cancel() {
+        cancelled = true;
+    }
+
+    // nothing in the DAOs waits on a key
+    @Override
+    public CompletableFuture<Void> watch(byte[] key) {
+        return failed(new UnsupportedOperationException("watches are not supported in memory"));
+    }
+
+    @Override
+    public Database getDatabase() {
+        return db;
+    }
+
+    @Override
+    public <T> T run(Function<? super Transaction, T> retryable) {
+        return retryable.apply(this);
+    }
+
+    @Override
+    public <T> CompletableFuture<T> runAsync(Function<? super Transaction, ? extends CompletableFuture<T>> retryable) {
+        return AsyncUtil.applySafely(retryable, this);
+    }
+
+    @Override
+    public TransactionOptions options() {
+        return options;
+    }
+
+    @Override
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Reads through the transaction without adding read conflict ranges
+     */
+    private class Snapshot extends MemoryReadTransaction {
+        @Override
+        byte[] read(byte[] key) {
+            return MemoryTransaction.this.read(key, true);
+        }
+
+        @Override
+        List<KeyValue> readRange(KeySelector begin, KeySelector end, int limit, boolean reverse) {
+            return MemoryTransaction.this.readRange(boundary(begin, true), boundary(end, true), limit, reverse,
+                    true);
+        }
+
+        @Override
+        byte[] resolve(KeySelector selector) {
+            return MemoryTransaction.this.resolve(selector, true);
+        }
+
+        @Override
+        public CompletableFuture<Long> getReadVersion() {
+            return MemoryTransaction.this.getReadVersion();
+        }
+
+        @Override
+        public TransactionOptions options() {
+            return options;
+        }
+
+        @Override
+        public Executor getExecutor() {
+            return executor;
+        }
+    }
+}
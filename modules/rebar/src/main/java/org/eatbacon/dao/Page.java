@@ -0,0 +1,57 @@
+package org.eatbacon.dao;
+
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * A single page of results. The continuation is an opaque token holding the last packed key read for
+ * the page, and is passed back to fetch the next page. It is `null` when there are no more results
+ *
+ * @param <T>
+ */
+public class Page<T> {
+    private final List<T> items;
+    private final String continuation;
+
+    public Page(List<T> items, String continuation) {
+        this.items = items;
+        this.continuation = continuation;
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    public String getContinuation() {
+        return continuation;
+    }
+
+    public boolean hasMore() {
+        return continuation != null;
+    }
+
+    public <R> Page<R> map(Function<? super T, ? extends R> mapper) {
+        return new Page<>(items.stream().map(mapper).collect(Collectors.toList()), continuation);
+    }
+
+    static String encodeContinuation(byte[] key) {
+        if(key == null) {
+            return null;
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key);
+    }
+
+    static byte[] decodeContinuation(String continuation) {
+        if(continuation == null || continuation.isEmpty()) {
+            return null;
+        }
+        try {
+            return Base64.getUrlDecoder().decode(continuation);
+        }
+        catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("invalid continuation " + continuation, e);
+        }
+    }
+}
@@ -0,0 +1,562 @@
+package org.eatbacon.dao;
+
+import com.apple.foundationdb.tuple.Tuple;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.introspect.AnnotatedMember;
+import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+import com.fasterxml.jackson.databind.ser.BeanSerializer;
+import org.eatbacon.query.Values;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Converts objects of a single class to and from the tuples of a document directly, without converting them to
+ * a Map first. The properties are the ones the object mapper would write, read and written through method
+ * handles, so documents are stored exactly as they are through the Map path.
+ *
+ * Only plain beans are supported: strings, numbers, booleans, dates, enums, UUIDs, lists and nested beans,
+ * without Jackson annotations or mix-ins. `forClass` returns null for any other class, and `decode` returns
+ * null for documents it can't map onto the class, so the caller can fall back to the Map path.
+ */
+public class PojoCodec {
+    static final Logger LOGGER = LoggerFactory.getLogger(PojoCodec.class);
+
+    private static final Long EMPTY_OBJECT = TupleManager.EMPTY_OBJECT;
+    private static final Long EMPTY_ARRAY = TupleManager.EMPTY_ARRAY;
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+    private static final MethodType GETTER = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER = MethodType.methodType(void.class, Object.class, Object.class);
+    private static final MethodType CONSTRUCTOR = MethodType.methodType(Object.class);
+
+    private final BeanType type;
+    private final ObjectMapper mapper;
+
+    private PojoCodec(BeanType type, ObjectMapper mapper) {
+        this.type = type;
+        this.mapper = mapper;
+    }
+
+    /**
+     * Builds the codec for a class
+     *
+     * @param cls
+     * @param mapper the mapper documents are otherwise converted with
+     * @return the codec, or null if the class needs the Map path
+     */
+    public static PojoCodec forClass(Class<?> cls, ObjectMapper mapper) {
+        try {
+            return new PojoCodec(new Builder(mapper).bean(cls), mapper);
+        }
+        catch (UnsupportedTypeException e) {
+            LOGGER.debug("no codec for " + cls.getName() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Encodes an object into tuples of path and value
+     *
+     * @param obj
+     * @return the tuples, or null if the object doesn't fit the class, such as when a property holds a subclass
+     */
+    public List<Tuple> encode(Object obj) {
+        List<Tuple> output = new ArrayList<>();
+        try {
+            type.encode(obj, new Tuple(), output);
+        }
+        catch (UnsupportedValueException e) {
+            LOGGER.debug("unable to encode " + type.cls.getName() + ": " + e.getMessage());
+            return null;
+        }
+        return output;
+    }
+
+    /**
+     * Decodes the tuples of path and value of a single document, in key order
+     *
+     * @param tuples
+     * @return the object, or null if the tuples don't fit the class
+     */
+    public Object decode(List<Tuple> tuples) {
+        if(tuples.isEmpty()) {
+            return null;
+        }
+        try {
+            return type.decode(tuples, 0, tuples.size(), 0);
+        }
+        catch (UnsupportedValueException e) {
+            LOGGER.debug("unable to decode " + type.cls.getName() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // codecs built for the same class with the same mapper convert objects the same way
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        PojoCodec codec = (PojoCodec) o;
+
+        return type.cls.equals(codec.type.cls) && mapper == codec.mapper;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * type.cls.hashCode() + System.identityHashCode(mapper);
+    }
+
+    private static class UnsupportedTypeException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedTypeException(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private static class UnsupportedValueException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedValueException(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private interface ValueType {
+        void encode(Object value, Tuple path, List<Tuple> output);
+
+        /**
+         * Decodes the value held by `tuples[from, to)`, whose value elements start at `depth`
+         */
+        Object decode(List<Tuple> tuples, int from, int to, int depth);
+    }
+
+    // returns the end of the run of tuples sharing the element at `depth` with `tuples[from]`
+    private static int endOfGroup(List<Tuple> tuples, int from, int to, int depth) {
+        Object key = tuples.get(from).get(depth);
+        int end = from + 1;
+        while(end < to && tuples.get(end).size() > depth && Objects.equals(key, tuples.get(end).get(depth))) {
+            end++;
+        }
+        return end;
+    }
+
+    // a single tuple ending at `depth` holds a plain value rather than an object or array
+    private static boolean isLeaf(List<Tuple> tuples, int from, int to, int depth) {
+        return to - from == 1 && tuples.get(from).size() == depth + 1;
+    }
+
+    private static boolean isMarker(List<Tuple> tuples, int from, int depth, Long marker) {
+        Tuple first = tuples.get(from);
+        return first.size() == depth + 2 && marker.equals(first.get(depth)) && first.get(depth + 1) == null;
+    }
+
+    private static class ScalarType implements ValueType {
+        private final Class<?> cls;
+
+        ScalarType(Class<?> cls) {
+            this.cls = cls;
+        }
+
+        @Override
+        public void encode(Object value, Tuple path, List<Tuple> output) {
+            output.add(path.addObject(Values.normalize(value)));
+        }
+
+        @Override
+        public Object decode(List<Tuple> tuples, int from, int to, int depth) {
+            if(!isLeaf(tuples, from, to, depth)) {
+                throw new UnsupportedValueException("expected a value for " + cls.getName());
+            }
+            Object value = tuples.get(from).get(depth);
+            if(value == null) {
+                return null;
+            }
+            if(cls == String.class && value instanceof String || cls == Boolean.class && value instanceof Boolean
+                    || cls == Long.class && value instanceof Long) {
+                return value;
+            }
+            if(value instanceof Long) {
+                long number = (Long) value;
+                if(cls == Integer.class && number == (int) number) {
+                    return (int) number;
+                }
+                if(cls == Short.class && number == (short) number) {
+                    return (short) number;
+                }
+                if(cls == Byte.class && number == (byte) number) {
+                    return (byte) number;
+                }
+                if(cls == Date.class) {
+                    return new Date(number);
+                }
+            }
+            if(value instanceof Number) {
+                if(cls == Double.class) {
+                    return ((Number) value).doubleValue();
+                }
+                if(cls == Float.class) {
+                    return ((Number) value).floatValue();
+                }
+            }
+            if(value instanceof String) {
+                try {
+                    if(cls == UUID.class) {
+                        return UUID.fromString((String) value);
+                    }
+                    if(cls.isEnum()) {
+                        return toEnum(cls, (String) value);
+                    }
+                }
+                catch (IllegalArgumentException e) {
+                    // not a value of the type, fall through
+                }
+            }
+            throw new UnsupportedValueException(value.getClass().getName() + " for " + cls.getName());
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private static Object toEnum(Class<?> cls, String name) {
+            return Enum.valueOf((Class<? extends Enum>) cls, name);
+        }
+    }
+
+    private static class ListType implements ValueType {
+        private final ValueType element;
+
+        ListType(ValueType element) {
+            this.element = element;
+        }
+
+        @Override
+        public void encode(Object value, Tuple path, List<Tuple> output) {
+            Collection<?> items = (Collection<?>) value;
+            if(items.isEmpty()) {
+                output.add(path.add(EMPTY_ARRAY).addObject(null));
+                return;
+            }
+            long i = 0;
+            for(Object item : items) {
+                if(item == null) {
+                    output.add(path.add(i).addObject(null));
+                }
+                else {
+                    element.encode(item, path.add(i), output);
+                }
+                i++;
+            }
+        }
+
+        @Override
+        public Object decode(List<Tuple> tuples, int from, int to, int depth) {
+            if(isLeaf(tuples, from, to, depth) && tuples.get(from).get(depth) == null) {
+                return null;
+            }
+            List<Object> output = new ArrayList<>();
+            if(isMarker(tuples, from, depth, EMPTY_ARRAY)) {
+                return output;
+            }
+            for(int start = from; start < to; ) {
+                int end = endOfGroup(tuples, start, to, depth);
+                if(!(tuples.get(start).get(depth) instanceof Long)) {
+                    throw new UnsupportedValueException("expected an array");
+                }
+                output.add(isLeaf(tuples, start, end, depth + 1) && tuples.get(start).get(depth + 1) == null
+                        ? null : element.decode(tuples, start, end, depth + 1));
+                start = end;
+            }
+            return output;
+        }
+    }
+
+    private static class Property {
+        private final String name;
+        private final ValueType type;
+        private final boolean primitive;
+        private MethodHandle getter;
+        private MethodHandle setter;
+
+        Property(String name, ValueType type, boolean primitive) {
+            this.name = name;
+            this.type = type;
+            this.primitive = primitive;
+        }
+    }
+
+    private static class BeanType implements ValueType {
+        private final Class<?> cls;
+        private final MethodHandle constructor;
+        private final boolean writeNulls;
+        private final List<Property> written = new ArrayList<>();
+        private final Map<String, Property> read = new HashMap<>();
+
+        BeanType(Class<?> cls, MethodHandle constructor, boolean writeNulls) {
+            this.cls = cls;
+            this.constructor = constructor;
+            this.writeNulls = writeNulls;
+        }
+
+        @Override
+        public void encode(Object value, Tuple path, List<Tuple> output) {
+            // the mapper writes the properties of the runtime class
+            if(value.getClass() != cls) {
+                throw new UnsupportedValueException(value.getClass().getName() + " for " + cls.getName());
+            }
+            int size = output.size();
+            for(Property property : written) {
+                Object item = get(property, value);
+                if(item != null) {
+                    property.type.encode(item, path.add(property.name), output);
+                }
+                else if(writeNulls) {
+                    output.add(path.add(property.name).addObject(null));
+                }
+            }
+            if(output.size() == size) {
+                output.add(path.add(EMPTY_OBJECT).addObject(null));
+            }
+        }
+
+        @Override
+        public Object decode(List<Tuple> tuples, int from, int to, int depth) {
+            if(isLeaf(tuples, from, to, depth) && tuples.get(from).get(depth) == null) {
+                return null;
+            }
+            Object bean = create();
+            if(isMarker(tuples, from, depth, EMPTY_OBJECT)) {
+                return bean;
+            }
+            for(int start = from; start < to; ) {
+                int end = endOfGroup(tuples, start, to, depth);
+                Object name = tuples.get(start).get(depth);
+                if(!(name instanceof String)) {
+                    throw new UnsupportedValueException("expected an object for " + cls.getName());
+                }
+
+                // like the mapper, unknown properties are skipped
+                Property property = read.get(name);
+                if(property != null) {
+                    Object item = property.type.decode(tuples, start, end, depth + 1);
+                    if(item != null || !property.primitive) {
+                        set(property, bean, item);
+                    }
+                }
+                start = end;
+            }
+            return bean;
+        }
+
+        private Object create() {
+            try {
+                return (Object) constructor.invokeExact();
+            }
+            catch (RuntimeException | Error e) {
+                throw e;
+            }
+            catch (Throwable e) {
+                throw new IllegalStateException("unable to create " + cls.getName(), e);
+            }
+        }
+
+        private static Object get(Property property, Object bean) {
+            try {
+                return (Object) property.getter.invokeExact(bean);
+            }
+            catch (RuntimeException | Error e) {
+                throw e;
+            }
+            catch (Throwable e) {
+                throw new IllegalStateException("unable to read " + property.name, e);
+            }
+        }
+
+        private static void set(Property property, Object bean, Object value) {
+            try {
+                property.setter.invokeExact(bean, value);
+            }
+            catch (RuntimeException | Error e) {
+                throw e;
+            }
+            catch (Throwable e) {
+                throw new IllegalStateException("unable to write " + property.name, e);
+            }
+        }
+    }
+
+    /**
+     * Resolves the value types of a class from the properties the object mapper sees
+     */
+    private static class Builder {
+        private final ObjectMapper mapper;
+        private final boolean writeNulls;
+        // beans being built, so that recursive types resolve to the same instance
+        private final Map<Class<?>, BeanType> beans = new LinkedHashMap<>();
+
+        Builder(ObjectMapper mapper) {
+            this.mapper = mapper;
+            JsonInclude.Include inclusion = mapper.getSerializationConfig().getDefaultPropertyInclusion()
+                    .getValueInclusion();
+            if(inclusion != JsonInclude.Include.ALWAYS && inclusion != JsonInclude.Include.NON_NULL
+                    && inclusion != JsonInclude.Include.USE_DEFAULTS) {
+                throw new UnsupportedTypeException("property inclusion " + inclusion);
+            }
+            this.writeNulls = inclusion != JsonInclude.Include.NON_NULL;
+        }
+
+        ValueType type(JavaType javaType) {
+            Class<?> raw = javaType.getRawClass();
+            if(raw.isPrimitive()) {
+                if(raw == char.class || raw == void.class) {
+                    throw new UnsupportedTypeException(raw.getName());
+                }
+                return new ScalarType(box(raw));
+            }
+            if(raw == String.class || raw == Long.class || raw == Integer.class || raw == Short.class
+                    || raw == Byte.class || raw == Double.class || raw == Float.class || raw == Boolean.class
+                    || raw == UUID.class) {
+                return new ScalarType(raw);
+            }
+            if(raw == Date.class) {
+                if(!mapper.isEnabled(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)) {
+                    throw new UnsupportedTypeException("dates written as text");
+                }
+                return new ScalarType(raw);
+            }
+            if(raw.isEnum()) {
+                if(mapper.isEnabled(SerializationFeature.WRITE_ENUMS_USING_TO_STRING)
+                        || mapper.isEnabled(SerializationFeature.WRITE_ENUMS_USING_INDEX)) {
+                    throw new UnsupportedTypeException("enums written by index or toString");
+                }
+                checkClassAnnotations(raw);
+                return new ScalarType(raw);
+            }
+            if(raw == List.class || raw == Collection.class || raw == ArrayList.class) {
+                return new ListType(type(javaType.getContentType()));
+            }
+            return bean(raw);
+        }
+
+        BeanType bean(Class<?> cls) {
+            BeanType existing = beans.get(cls);
+            if(existing != null) {
+                return existing;
+            }
+            if(cls.isInterface() || Modifier.isAbstract(cls.getModifiers()) || cls.getName().startsWith("java")
+                    || cls.isArray() || Map.class.isAssignableFrom(cls) || Collection.class.isAssignableFrom(cls)) {
+                throw new UnsupportedTypeException(cls.getName());
+            }
+            if(mapper.findMixInClassFor(cls) != null) {
+                throw new UnsupportedTypeException("mix-in on " + cls.getName());
+            }
+            checkClassAnnotations(cls);
+            try {
+                JsonSerializer<Object> serializer = mapper.getSerializerProviderInstance().findValueSerializer(cls);
+                if(!(serializer instanceof BeanSerializer)) {
+                    throw new UnsupportedTypeException("custom serializer for " + cls.getName());
+                }
+            }
+            catch (com.fasterxml.jackson.databind.JsonMappingException e) {
+                throw new UnsupportedTypeException(e.getMessage());
+            }
+
+            BeanType bean = new BeanType(cls, findConstructor(cls), writeNulls);
+            beans.put(cls, bean);
+
+            JavaType javaType = mapper.constructType(cls);
+            BeanDescription serialization = mapper.getSerializationConfig().introspect(javaType);
+            Map<String, BeanPropertyDefinition> setters = new HashMap<>();
+            for(BeanPropertyDefinition definition : mapper.getDeserializationConfig().introspect(javaType)
+                    .findProperties()) {
+                setters.put(definition.getName(), definition);
+            }
+
+            for(BeanPropertyDefinition definition : serialization.findProperties()) {
+                BeanPropertyDefinition writable = setters.get(definition.getName());
+                if(!definition.hasGetter() || writable == null || !writable.hasSetter()) {
+                    throw new UnsupportedTypeException("property " + definition.getName() + " of "
+                            + cls.getName() + " needs a getter and setter");
+                }
+                Property property = property(definition.getName(), definition.getGetter(), writable.getSetter(),
+                        definition.getPrimaryType());
+                bean.written.add(property);
+                bean.read.put(property.name, property);
+            }
+            return bean;
+        }
+
+        private Property property(String name, AnnotatedMember getter, AnnotatedMember setter, JavaType type) {
+            Method getterMethod = (Method) getter.getAnnotated();
+            Method setterMethod = (Method) setter.getAnnotated();
+            checkAnnotations(getterMethod);
+            checkAnnotations(setterMethod);
+
+            Property property = new Property(name, type(type), type.isPrimitive());
+            try {
+                property.getter = LOOKUP.unreflect(getterMethod).asType(GETTER);
+                property.setter = LOOKUP.unreflect(setterMethod).asType(SETTER);
+            }
+            catch (IllegalAccessException e) {
+                throw new UnsupportedTypeException("property " + name + " is not public");
+            }
+            return property;
+        }
+
+        private static MethodHandle findConstructor(Class<?> cls) {
+            try {
+                return LOOKUP.findConstructor(cls, MethodType.methodType(void.class)).asType(CONSTRUCTOR);
+            }
+            catch (NoSuchMethodException | IllegalAccessException e) {
+                throw new UnsupportedTypeException(cls.getName() + " has no public no-arg constructor");
+            }
+        }
+
+        // Jackson annotations change how the mapper writes a class, which this codec doesn't follow
+        private static void checkClassAnnotations(Class<?> cls) {
+            for(Class<?> current = cls; current != null && current != Object.class; current = current.getSuperclass()) {
+                checkAnnotations(current);
+                for(Field field : current.getDeclaredFields()) {
+                    checkAnnotations(field);
+                }
+                for(Method method : current.getDeclaredMethods()) {
+                    checkAnnotations(method);
+                }
+            }
+        }
+
+        private static void checkAnnotations(AnnotatedElement element) {
+            for(Annotation annotation : element.getAnnotations()) {
+                if(annotation.annotationType().getName().startsWith("com.fasterxml.jackson")) {
+                    throw new UnsupportedTypeException("annotated with " + annotation.annotationType().getName());
+                }
+            }
+        }
+
+        private static Class<?> box(Class<?> primitive) {
+            return MethodType.methodType(primitive).wrap().returnType();
+        }
+    }
+}
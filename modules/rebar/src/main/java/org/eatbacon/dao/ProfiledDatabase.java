@@ -0,0 +1,98 @@
+package org.eatbacon.dao;
+
+import com.apple.foundationdb.Database;
+import com.apple.foundationdb.DatabaseOptions;
+import com.apple.foundationdb.ReadTransaction;
+import com.apple.foundationdb.ReadTransactionContext;
+import com.apple.foundationdb.Transaction;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * A database whose transactions all carry the options of a `TransactionProfile`
+ */
+class ProfiledDatabase extends AbstractDatabase {
+    private final Database database;
+    private final TransactionProfile profile;
+
+    // guarded by this
+    private long cachedReadVersion = -1;
+    private long cachedAt;
+
+    ProfiledDatabase(Database database, TransactionProfile profile) {
+        this.database = database;
+        this.profile = profile;
+    }
+
+    TransactionProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Returns the reader to scan with in a transaction of the context: a snapshot of it when the context is a
+     * database whose profile asks for snapshot scans. Snapshot reads add no conflict ranges and bypass the
+     * read-your-writes cache, which is wasted work for scans that write nothing
+     *
+     * @param tcx
+     * @param tr
+     * @return
+     */
+    static ReadTransaction forScan(ReadTransactionContext tcx, ReadTransaction tr) {
+        if(tcx instanceof ProfiledDatabase && ((ProfiledDatabase) tcx).profile.isSnapshotScans()
+                && tr instanceof Transaction) {
+            return ((Transaction) tr).snapshot();
+        }
+        return tr;
+    }
+
+    @Override
+    public Transaction createTransaction(Executor e) {
+        Transaction tr = database.createTransaction(e);
+        profile.apply(tr);
+
+        long maxAge = profile.getReadVersionCacheMillis();
+        if(maxAge > 0) {
+            long now = System.currentTimeMillis();
+            synchronized (this) {
+                if(cachedReadVersion >= 0 && now - cachedAt < maxAge) {
+                    tr.setReadVersion(cachedReadVersion);
+                    return tr;
+                }
+            }
+            tr.getReadVersion().thenAccept(version -> {
+                synchronized (this) {
+                    if(version > cachedReadVersion) {
+                        cachedReadVersion = version;
+                        cachedAt = now;
+                    }
+                }
+            });
+        }
+        return tr;
+    }
+
+    @Override
+    public DatabaseOptions options() {
+        return database.options();
+    }
+
+    // the client resets transaction options on `onError`
+    @Override
+    protected CompletableFuture<Transaction> retry(Transaction tr, Throwable err) {
+        return super.retry(tr, err).thenApply(next -> {
+            profile.apply(next);
+            return next;
+        });
+    }
+
+    @Override
+    public Executor getExecutor() {
+        return database.getExecutor();
+    }
+
+    // the database is shared, and closed with the process
+    @Override
+    public void close() {
+    }
+}
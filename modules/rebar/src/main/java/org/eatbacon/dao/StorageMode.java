@@ -0,0 +1,17 @@
+package org.eatbacon.dao;
+
+/**
+ * How the documents of a DAO are laid out in its docSpace
+ */
+public enum StorageMode {
+    /**
+     * One key-value per leaf field, keyed by `(id, path...)`. Fields can be read and matched individually
+     */
+    FIELDS,
+
+    /**
+     * The whole document as a single packed value under `(id, -3, chunk)`, split into chunks when it is over
+     * the value size limit. Documents take far fewer bytes and are read with one short range read
+     */
+    PACKED
+}
@@ -0,0 +1,128 @@
+package org.eatbacon.dao;
+
+import com.apple.foundationdb.Transaction;
+
+/**
+ * Options applied to every transaction of a DAO, see `AbstractDao.getTransactionProfile`. A reporting DAO can
+ * run at batch priority with snapshot scans, while latency-critical DAOs keep tight timeouts
+ */
+public class TransactionProfile {
+    public enum Priority {
+        // transactions may be throttled first when the cluster is saturated
+        BATCH,
+        DEFAULT
+    }
+
+    // well within the five seconds a read version stays usable, so transactions started from a cached version
+    // still have most of that window to run
+    static final long MAX_READ_VERSION_CACHE_MILLIS = 1000;
+
+    private long timeoutMillis;
+    private long retryLimit = -1;
+    private long maxRetryDelayMillis;
+    private Priority priority = Priority.DEFAULT;
+    private boolean snapshotScans;
+    private long readVersionCacheMillis;
+
+    /**
+     * Cancels a transaction, including its retries, after this many milliseconds. 0 means no timeout
+     */
+    public TransactionProfile timeout(long timeoutMillis) {
+        if(timeoutMillis < 0) {
+            throw new IllegalArgumentException("timeout can't be negative");
+        }
+        this.timeoutMillis = timeoutMillis;
+        return this;
+    }
+
+    /**
+     * Gives up on a transaction after this many retries. -1 means no limit
+     */
+    public TransactionProfile retryLimit(long retryLimit) {
+        this.retryLimit = retryLimit;
+        return this;
+    }
+
+    /**
+     * Caps the back-off between retries. 0 keeps the client's default of one second
+     */
+    public TransactionProfile maxRetryDelay(long maxRetryDelayMillis) {
+        if(maxRetryDelayMillis < 0) {
+            throw new IllegalArgumentException("maxRetryDelay can't be negative");
+        }
+        this.maxRetryDelayMillis = maxRetryDelayMillis;
+        return this;
+    }
+
+    public TransactionProfile priority(Priority priority) {
+        this.priority = priority;
+        return this;
+    }
+
+    /**
+     * Reads scanned batches of the docSpace as snapshot reads, so scans never add read conflict ranges
+     */
+    public TransactionProfile snapshotScans(boolean snapshotScans) {
+        this.snapshotScans = snapshotScans;
+        return this;
+    }
+
+    /**
+     * Reuses a read version for this many milliseconds instead of asking the cluster for one per transaction.
+     * Reads may then miss writes committed within that window, and writes conflict more often, so this suits
+     * read-mostly DAOs. 0 turns it off, and at most one second is allowed
+     */
+    public TransactionProfile readVersionCache(long readVersionCacheMillis) {
+        if(readVersionCacheMillis < 0 || readVersionCacheMillis > MAX_READ_VERSION_CACHE_MILLIS) {
+            throw new IllegalArgumentException("readVersionCache must be between 0 and "
+                    + MAX_READ_VERSION_CACHE_MILLIS);
+        }
+        this.readVersionCacheMillis = readVersionCacheMillis;
+        return this;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public long getRetryLimit() {
+        return retryLimit;
+    }
+
+    public long getMaxRetryDelayMillis() {
+        return maxRetryDelayMillis;
+    }
+
+    public Priority getPriority() {
+        return priority;
+    }
+
+    public boolean isSnapshotScans() {
+        return snapshotScans;
+    }
+
+    public long getReadVersionCacheMillis() {
+        return readVersionCacheMillis;
+    }
+
+    /**
+     * Sets the options on a transaction. The client resets them when a transaction is retried, so this is
+     * called again after every `onError`
+     *
+     * @param tr
+     */
+    void apply(Transaction tr) {
+        if(timeoutMillis > 0) {
+            tr.options().setTimeout(timeoutMillis);
+        }
+        if(retryLimit >= 0) {
+            tr.options().setRetryLimit(retryLimit);
+        }
+        if(maxRetryDelayMillis > 0) {
+            tr.options().setMaxRetryDelay(maxRetryDelayMillis);
+        }
+        if(priority == Priority.BATCH) {
+            tr.options().setPriorityBatch();
+        }
+    }
+}
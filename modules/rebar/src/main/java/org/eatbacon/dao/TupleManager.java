@@ -1,37 +1,98 @@
 package org.eatbacon.dao;
 
+import com.apple.foundationdb.Database;
+import com.apple.foundationdb.KeySelector;
 import com.apple.foundationdb.KeyValue;
+import com.apple.foundationdb.LocalityUtil;
+import com.apple.foundationdb.MutationType;
+import com.apple.foundationdb.Range;
+import com.apple.foundationdb.ReadTransaction;
+import com.apple.foundationdb.ReadTransactionContext;
 import com.apple.foundationdb.Transaction;
 import com.apple.foundationdb.TransactionContext;
+import com.apple.foundationdb.async.AsyncUtil;
+import com.apple.foundationdb.async.CloseableAsyncIterator;
 import com.apple.foundationdb.subspace.Subspace;
+import com.apple.foundationdb.tuple.ByteArrayUtil;
 import com.apple.foundationdb.tuple.Tuple;
+import org.eatbacon.query.CompiledQuery;
 import org.eatbacon.query.Index;
 import org.eatbacon.query.Query;
+import org.eatbacon.query.TupleBytes;
+import org.eatbacon.query.Values;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.*;
 import java.util.Map.Entry;
-import java.util.concurrent.Future;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 public class TupleManager {
     static final Logger LOGGER = LoggerFactory.getLogger(TupleManager.class);
 
-    private static final long EMPTY_OBJECT = -2;
-    private static final long EMPTY_ARRAY = -1;
+    static final long EMPTY_OBJECT = -2;
+    static final long EMPTY_ARRAY = -1;
+    // key element marking the chunks of a packed document, see `StorageMode.PACKED`
+    static final long PACKED_DOCUMENT = -3;
+    // values are limited to 100KB
+    static final int CHUNK_SIZE = 100000;
+    private static final byte PACKED_RAW = 0x00;
+    private static final byte PACKED_DEFLATED = 0x01;
+    // key elements marking the atomic counters of a field, see `mutate`
+    static final long COUNTER_ADD = -4;
+    static final long COUNTER_MAX = -5;
+    static final long COUNTER_MIN = -6;
+    private static final byte[][] COUNTER_SUFFIXES = {
+            Tuple.from(COUNTER_ADD).pack(), Tuple.from(COUNTER_MAX).pack(), Tuple.from(COUNTER_MIN).pack()
+    };
+    // how long the cached index definitions are used before checking for changes from other nodes
+    static final long INDEX_REFRESH_MILLIS = 1000;
+    // number of documents deleted per transaction by `deleteWhere`
+    static final int DELETE_BATCH_SIZE = 100;
+    private static final byte[] EMPTY_VALUE = new byte[0];
+    public static final int DEFAULT_BATCH_SIZE = 1000;
     private static final Map<String, TupleManager> processors = new HashMap<>();
 
     private String uniqueIdName = "_id";
     private Subspace docSpace;
     private Subspace indexSpace;
     private Subspace indexDefinitionSpace;
-    private List<Index> indexes;
+    private Subspace indexBuildSpace;
+    // bumped by every write to the docSpace, see `DocumentCache`
+    private byte[] versionKey;
+    // state of the id strategies, see `IdGenerators`
+    private Subspace idSpace;
+    private volatile IndexMetadata indexes;
+    private volatile PojoCodec codec;
+    private volatile StorageMode storageMode = StorageMode.FIELDS;
+    private volatile boolean compressed = false;
+    private boolean configured = false;
+    private final Map<Index, CompletableFuture<Void>> indexBuilds = new ConcurrentHashMap<>();
     private Class<?> cls;
 
     protected TupleManager(Class<?> cls, String uniqueIdName) {
         this.docSpace = new Subspace(Tuple.from(cls.getName()));
         this.indexSpace = new Subspace(Tuple.from("index_" + cls.getName()));
         this.indexDefinitionSpace = new Subspace(Tuple.from("index_definition_" + cls.getName()));
+        this.indexBuildSpace = new Subspace(Tuple.from("index_build_" + cls.getName()));
+        this.versionKey = Tuple.from("version_" + cls.getName()).pack();
+        this.idSpace = new Subspace(Tuple.from("id_" + cls.getName()));
         this.cls = cls;
         this.uniqueIdName = uniqueIdName;
     }
@@ -41,46 +102,192 @@ public class TupleManager {
     }
 
     /**
-     * Ensures the specified index is created. Does not re-index any values
+     * Sets the codec used to decode documents and how documents are written. A collection has a single layout,
+     * shared by every DAO of its class, so once set, a DAO asking for another codec or layout fails rather than
+     * reading documents with the wrong one. Documents are read in either layout, so a collection can switch
+     * modes across restarts and its existing documents are converted as they are written again
+     *
+     * @param codec the codec, or null to always use primitive maps
+     * @param storageMode
+     * @param compressed whether packed documents are compressed with a `Deflater`
+     * @throws IllegalStateException if another DAO set a different codec or layout for the collection
+     */
+    public synchronized void configure(PojoCodec codec, StorageMode storageMode, boolean compressed) {
+        if(configured) {
+            if(!Objects.equals(this.codec, codec) || this.storageMode != storageMode || this.compressed != compressed) {
+                throw new IllegalStateException("the DAOs of " + cls.getName() + " disagree on its storage: "
+                        + this.storageMode + (this.compressed ? " compressed" : "") + " and " + storageMode
+                        + (compressed ? " compressed" : "") + ", with " + (this.codec == null ? "no" : "a")
+                        + " codec and " + (codec == null ? "no" : "a") + " codec");
+            }
+            return;
+        }
+        this.codec = codec;
+        this.storageMode = storageMode;
+        this.compressed = compressed;
+        this.configured = true;
+    }
+
+    public PojoCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Ensures the specified index is defined. A new index is created in the `BUILDING` state: it is
+     * maintained on writes but not used for queries until `buildIndex` has indexed the existing documents
      *
      * @param tcx
      * @param index
+     * @return the state of the index
+     */
+    public Index.State ensureIndex(TransactionContext tcx, Index index) {
+        Index.State created = tcx.run(tr -> {
+            Index.State state = getIndexStates(tr).get(index);
+            if(state != null) {
+                return state;
+            }
+            tr.set(indexDefinitionSpace.pack(getIndexPath(index)), Tuple.from(Index.State.BUILDING.name()).pack());
+            bumpIndexVersion(tr);
+            return null;
+        });
+        if(created != null) {
+            return created;
+        }
+        this.indexes = null;
+        return Index.State.BUILDING;
+    }
+
+    /**
+     * Builds an index in the background, one `buildIndex` batch per transaction, until it is readable. Only
+     * one build per index runs at a time in this process; asking again returns the running build
+     *
+     * @param tcx the database, so each batch runs in its own transaction
+     * @param index
+     * @param batchSize
+     * @param executor
+     * @return a future which completes when the index is readable
      */
-    public void ensureIndex(TransactionContext tcx, Index index) {
-        if(indexes == null) {
-            this.indexes = getIndexes(tcx);
+    public CompletableFuture<Void> buildIndexAsync(TransactionContext tcx, Index index, int batchSize,
+                                                   Executor executor) {
+        // registered before the build starts, as a short build may complete on this thread
+        CompletableFuture<Void> build = new CompletableFuture<>();
+        CompletableFuture<Void> running = indexBuilds.putIfAbsent(index, build);
+        if(running != null) {
+            return running;
         }
-        if(!indexes.contains(index)) {
-            tcx.run(tr -> {
-                Tuple tuple = new Tuple();
-                for (String item : index.getValues()) {
-                    tuple = tuple.add(item);
+
+        CompletableFuture.runAsync(() -> {
+            LOGGER.info("building index " + getIndexPath(index) + " for " + cls.getName());
+            while(!buildIndex(tcx, index, batchSize)) {
+                LOGGER.debug("indexed a batch for " + getIndexPath(index));
+            }
+            LOGGER.info("index " + getIndexPath(index) + " for " + cls.getName() + " is readable");
+        }, executor).whenComplete((result, e) -> {
+            indexBuilds.remove(index, build);
+            if(e != null) {
+                LOGGER.error("failed to build index " + getIndexPath(index) + ", it resumes on the next ensureIndex", e);
+                build.completeExceptionally(e);
+            }
+            else {
+                build.complete(null);
+            }
+        });
+        return build;
+    }
+
+    /**
+     * Indexes the next batch of existing documents for an index in the `BUILDING` state. Progress is recorded
+     * under `indexBuildSpace` in the same transaction, so a build resumes where it stopped after a crash.
+     * When the docSpace is exhausted, the index is marked `READABLE`
+     *
+     * @param tcx
+     * @param index
+     * @param batchSize maximum number of key-values read in this batch
+     * @return true once the index is complete
+     */
+    public boolean buildIndex(TransactionContext tcx, Index index, int batchSize) {
+        Tuple path = getIndexPath(index);
+        byte[] progressKey = indexBuildSpace.pack(path);
+        byte[] definitionKey = indexDefinitionSpace.pack(path);
+
+        boolean done = tcx.run(tr -> {
+            byte[] definition = tr.get(definitionKey).join();
+            if(definition == null) {
+                // the index was removed while it was being built
+                tr.clear(progressKey);
+                return true;
+            }
+            if(getIndexState(definition) == Index.State.READABLE) {
+                return true;
+            }
+
+            byte[] last = tr.get(progressKey).join();
+            byte[] begin = last == null ? docSpace.range().begin : ByteArrayUtil.join(last, new byte[]{0x00});
+            List<KeyValue> kvs = tr.getRange(begin, docSpace.range().end, batchSize).asList().join();
+            for(KeyValue kv : kvs) {
+                Tuple key = docSpace.unpack(kv.getKey());
+                if(isPackedKey(key)) {
+                    // a packed document is indexed whole when its first chunk is seen
+                    if(key.getLong(2) == 0) {
+                        Object uniqueId = key.get(0);
+                        for(Tuple t : unpackDocument(tr.getRange(getPackedRange(uniqueId)).asList().join())) {
+                            if(t.size() == path.size() + 1 && t.popBack().equals(path)) {
+                                addToIndex(tr, t, uniqueId);
+                            }
+                        }
+                    }
                 }
+                else if(key.size() == path.size() + 1 && key.popFront().equals(path)) {
+                    addToIndex(tr, path.addAll(Tuple.fromBytes(kv.getValue())), key.get(0));
+                }
+            }
 
-                tr.set(indexDefinitionSpace.pack(tuple),
-                        Tuple.from("").pack());
-                return null;
-            });
+            if(kvs.size() < batchSize) {
+                tr.clear(progressKey);
+                tr.set(definitionKey, Tuple.from(Index.State.READABLE.name()).pack());
+                bumpIndexVersion(tr);
+                return true;
+            }
+            tr.set(progressKey, kvs.get(kvs.size() - 1).getKey());
+            return false;
+        });
+        if(done) {
+            this.indexes = null;
         }
+        return done;
     }
 
     /**
-     * Adds the supplied object to an index. Assumes the value can be stringified
+     * Adds the supplied object to an index. The index key is `(path, value, id)` with an empty value, so
+     * any number of documents can share a value and a lookup is a single prefix range scan
      *
      * @param tcx
-     * @param path
-     * @param value
+     * @param path the indexed path followed by the value
+     * @param uniqueId
      */
-    public void addToIndex(TransactionContext tcx, Tuple path, Object value) {
+    public void addToIndex(TransactionContext tcx, Tuple path, Object uniqueId) {
         tcx.run(tr -> {
-            String id = String.valueOf(value);
-            LOGGER.info("indexing path " + path + " with value " + value);
-            tr.set(indexSpace.pack(path),
-                    Tuple.from(String.valueOf(id)).pack());
+            LOGGER.debug("indexing path " + path + " for id " + uniqueId);
+            tr.set(getIndexKey(path, uniqueId), EMPTY_VALUE);
             return null;
         });
     }
 
+    private byte[] getIndexKey(Tuple path, Object uniqueId) {
+        return indexSpace.pack(path.addObject(uniqueId));
+    }
+
+    /**
+     * Returns the unique id, as a tuple, from an index key
+     *
+     * @param key
+     * @return
+     */
+    private Tuple getIdFromIndexKey(byte[] key) {
+        Tuple tuple = indexSpace.unpack(key);
+        return Tuple.from(tuple.get(tuple.size() - 1));
+    }
+
     /**
      * Returns all indexes in the `indexDefinitionSpace`
      *
@@ -88,39 +295,168 @@ public class TupleManager {
      * @return List of indexes
      */
     public List<Index> getIndexes(TransactionContext tcx) {
-        List<Index> output = new ArrayList<>();
-        tcx.run(tr -> {
-            try {
-                Future<byte[]> v = tr.get(indexDefinitionSpace.pack());
-                for (KeyValue kv : tr.getRange(indexDefinitionSpace.range(), 1000)) {
-                    Tuple key = indexDefinitionSpace.unpack(kv.getKey());
-                    List<String> path = new ArrayList<>();
-                    for (Iterator<?> x = key.iterator(); x.hasNext();) {
-                        path.add(x.next().toString());
-                    }
-                    output.add(new Index(path.toArray(new String[path.size()])));
-                }
-                return output;
+        return new ArrayList<>(getIndexStates(tcx).keySet());
+    }
+
+    /**
+     * Returns all indexes in the `indexDefinitionSpace` along with their state. The definitions are read in
+     * batches as they are iterated, so there is no limit on their number
+     *
+     * @param tcx
+     * @return
+     */
+    public Map<Index, Index.State> getIndexStates(TransactionContext tcx) {
+        return tcx.run(tr -> toIndexStates(tr.getRange(indexDefinitionSpace.range())));
+    }
+
+    private Map<Index, Index.State> toIndexStates(Iterable<KeyValue> definitions) {
+        Map<Index, Index.State> output = new LinkedHashMap<>();
+        for (KeyValue kv : definitions) {
+            Tuple key = indexDefinitionSpace.unpack(kv.getKey());
+            List<String> path = new ArrayList<>();
+            for (Iterator<?> x = key.iterator(); x.hasNext();) {
+                path.add(x.next().toString());
             }
-            catch (Exception e) {
-                return output;
+            output.put(new Index(path.toArray(new String[path.size()])), getIndexState(kv.getValue()));
+        }
+        return output;
+    }
+
+    // definitions written before index states existed hold an empty string, and are readable
+    private static Index.State getIndexState(byte[] definition) {
+        String state = Tuple.fromBytes(definition).getString(0);
+        return Index.State.BUILDING.name().equals(state) ? Index.State.BUILDING : Index.State.READABLE;
+    }
+
+    private static Tuple getIndexPath(Index index) {
+        return Tuple.fromList(Arrays.asList(index.getValues()));
+    }
+
+    /**
+     * Returns the index states keyed by path, as cached by this process. Every change to an index definition,
+     * from any node, increments the version key of the `indexDefinitionSpace`. The cache is trusted for
+     * `INDEX_REFRESH_MILLIS` after it was checked, then the version key is read again and the definitions are
+     * reloaded only if it moved. Writes use `getIndexStatesForWrite` instead
+     */
+    private Map<Tuple, Index.State> getCachedIndexStates(ReadTransactionContext tcx) {
+        IndexMetadata current = indexes;
+        long now = System.currentTimeMillis();
+        if(current != null && now - current.checkedAt < INDEX_REFRESH_MILLIS) {
+            return current.states;
+        }
+        return tcx.read(tr -> loadIndexStates(tr).join());
+    }
+
+    private CompletableFuture<Map<Tuple, Index.State>> getCachedIndexStatesAsync(ReadTransaction tr) {
+        IndexMetadata current = indexes;
+        long now = System.currentTimeMillis();
+        if(current != null && now - current.checkedAt < INDEX_REFRESH_MILLIS) {
+            return CompletableFuture.completedFuture(current.states);
+        }
+        return loadIndexStates(tr);
+    }
+
+    /**
+     * Returns the index states for a transaction which writes documents. The version key of the
+     * `indexDefinitionSpace` is read in that transaction, so an index defined or completed while it runs makes
+     * it conflict and retry with the new states, instead of committing a document without its index entries
+     *
+     * @param tr
+     * @return the index states keyed by path
+     */
+    private Map<Tuple, Index.State> getIndexStatesForWrite(Transaction tr) {
+        return loadIndexStates(tr).join();
+    }
+
+    // reads the version key, and the definitions only if it moved since they were cached
+    private CompletableFuture<Map<Tuple, Index.State>> loadIndexStates(ReadTransaction tr) {
+        long now = System.currentTimeMillis();
+        return getIndexVersion(tr).thenCompose(version -> {
+            IndexMetadata latest = indexes;
+            if(latest != null && latest.version == version) {
+                latest.checkedAt = now;
+                return CompletableFuture.completedFuture(latest.states);
             }
+            return tr.getRange(indexDefinitionSpace.range()).asList().thenApply(definitions -> {
+                Map<Tuple, Index.State> states = new HashMap<>();
+                toIndexStates(definitions).forEach((index, state) -> states.put(getIndexPath(index), state));
+                IndexMetadata loaded = new IndexMetadata(version, Collections.unmodifiableMap(states), now);
+                this.indexes = loaded;
+                return loaded.states;
+            });
         });
-        return output;
+    }
+
+    private CompletableFuture<Long> getIndexVersion(ReadTransaction tr) {
+        // the bare prefix of the subspace sorts before, and outside of, the definitions
+        return tr.get(indexDefinitionSpace.getKey()).thenApply(value -> value == null ? 0 : decodeCounter(value));
+    }
+
+    private void bumpIndexVersion(Transaction tr) {
+        tr.mutate(MutationType.ADD, indexDefinitionSpace.getKey(), encodeCounter(1));
+    }
+
+    /**
+     * Index definitions hold their path as strings, while array indexes in a path are numbers
+     */
+    private static Tuple toIndexPath(Tuple path) {
+        for(int i = 0; i < path.size(); i++) {
+            if(!(path.get(i) instanceof String)) {
+                List<Object> items = new ArrayList<>(path.size());
+                for(Object item : path) {
+                    items.add(item.toString());
+                }
+                return Tuple.fromList(items);
+            }
+        }
+        return path;
+    }
+
+    private static class IndexMetadata {
+        final long version;
+        final Map<Tuple, Index.State> states;
+        volatile long checkedAt;
+
+        IndexMetadata(long version, Map<Tuple, Index.State> states, long checkedAt) {
+            this.version = version;
+            this.states = states;
+            this.checkedAt = checkedAt;
+        }
     }
 
     /**
-     * Checks to see if a tuple can use an index for lookup
+     * Checks to see if a tuple can use an index for lookup. Indexes which are still being built can't
      *
      * @param tcx
      * @param tuple
      * @return true if the tuple is indexed
      */
     protected boolean canUseIndex(TransactionContext tcx, Tuple tuple) {
-        if(indexes == null) {
-            this.indexes = getIndexes(tcx);
-        }
-        return this.indexes.contains(new Index(tuple.getItems()));
+        return getCachedIndexStates(tcx).get(toIndexPath(tuple)) == Index.State.READABLE;
+    }
+
+    /**
+     * Checks without blocking whether a tuple can use an index for lookup, like `canUseIndex`. The definitions
+     * are only read, in the transaction, when their cache is stale
+     *
+     * @param tr
+     * @param tuple
+     * @return true if the tuple is indexed
+     */
+    protected CompletableFuture<Boolean> canUseIndexAsync(ReadTransaction tr, Tuple tuple) {
+        return getCachedIndexStatesAsync(tr)
+                .thenApply(states -> states.get(toIndexPath(tuple)) == Index.State.READABLE);
+    }
+
+    /**
+     * Checks to see if writes to a path need to be indexed, which includes indexes that are being built
+     *
+     * @param tcx
+     * @param tuple
+     * @return true if the tuple is indexed
+     */
+    protected boolean isIndexed(TransactionContext tcx, Tuple tuple) {
+        return getCachedIndexStates(tcx).containsKey(toIndexPath(tuple));
     }
 
     /**
@@ -143,286 +479,1437 @@ public class TupleManager {
     }
 
     /**
-     * Returns all objects for the docSpace. Used for exporting and debugging.
-     *
-     * TODO: Should stream values back to caller instead of creating a huge list of
-     * objects, which is a huge memory issue
+     * Returns all objects for the docSpace. Used for exporting and debugging. Prefer `streamAll` for
+     * large collections, as this holds every object in memory
      *
      * @param tcx
      * @return
      */
     public List<Object> getAll(TransactionContext tcx) {
-        List<Object> output = new ArrayList<>();
-
-        return tcx.run(tr -> {
-            try {
-                Future<byte[]> v = tr.get(docSpace.pack());
-                if (v.get() != null) {
-                    // One single item.
-                    ArrayList<Tuple> vals = new ArrayList<>();
-                    output.add(fromTuples(vals));
-                } else {
-                    // Multiple items.
-                    ArrayList<Tuple> vals = new ArrayList<>();
-                    String currentKey = null;
-                    for (KeyValue kv : tr.getRange(docSpace.range())) {
-                        Tuple key = docSpace.unpack(kv.getKey());
-                        Tuple value = Tuple.fromBytes(kv.getValue());
-
-                        // since the tuple is the unique ID, when it changes, we have a new object
-                        if(key.get(0) != null && key.get(0) instanceof String) {
-                            String tupleKey = String.valueOf(key.get(0));
-                            if(currentKey == null) {
-                                currentKey = tupleKey;
-                            }
-                            if(tupleKey.equals(currentKey)) {
-                                vals.add(key.popFront().addAll(value));
-                            }
-                            else {
-                                output.add(fromTuples(vals));
-                                currentKey = tupleKey;
-                                vals.clear();
-                            }
-                        }
-                    }
-                    // convert the list of tuples into a Map
-                    output.add(fromTuples(vals));
-                }
-                return output;
-            }
-            catch (Exception e) {
-                e.printStackTrace();
-                return output;
-            }
-        });
+        return tcx.run(tr -> streamAll(tr, DEFAULT_BATCH_SIZE).collect(Collectors.toList()));
     }
 
     /**
-     * Returns a list of values based on the specified query. If no values match the query, an empty
-     * list is returned
+     * Returns a cursor over the raw key-values of every document in the docSpace. When passed a
+     * `Database`, each batch is read in a new transaction which continues from the last key seen
      *
      * @param tcx
-     * @param query
-     * @return List of Objects described in a primitive map
+     * @param batchSize maximum number of key-values read per batch
+     * @return
      */
-    public List<Object> getByQuery(Transaction tcx, Query query) {
-        List<Object> output = new ArrayList<>();
-
-        return tcx.run(tr -> {
-            try {
-                Future<byte[]> v = tr.get(docSpace.pack());
-                if (v.get() != null) {
-                    // One single item.
-                    ArrayList<Tuple> vals = new ArrayList<>();
-                    output.add(fromTuples(vals));
-                } else {
-                    // Multiple items.
-                    ArrayList<Tuple> vals = new ArrayList<>();
-                    String currentKey = null;
-                    for (KeyValue kv : tr.getRange(docSpace.range(), 1000)) {
-                        Tuple key = docSpace.unpack(kv.getKey());
-                        Tuple value = Tuple.fromBytes(kv.getValue());
-
-                            if(key.get(0) != null && key.get(0) instanceof String) {
-                            String tupleKey = String.valueOf(key.get(0));
-                            if(currentKey == null) {
-                                currentKey = tupleKey;
-                            }
-                            if(tupleKey.equals(currentKey)) {
-                                vals.add(key.popFront().addAll(value));
-                            }
-                            else {
-                                boolean matches = false;
-                                for(Tuple tuple : vals) {
-                                    if(query.isSatisfiedBy(tuple)) {
-                                        matches = true;
-                                    }
-                                }
-                                if(matches) {
-                                    output.add(fromTuples(vals));
-                                }
-                                currentKey = tupleKey;
-                                vals.clear();
-                            }
-                        }
-                    }
-                    // check the query
-                    boolean matches = false;
-                    for(Tuple tuple : vals) {
-                        if(query.isSatisfiedBy(tuple)) {
-                            matches = true;
-                        }
-                    }
-                    if(matches) {
-                        output.add(fromTuples(vals));
-                    }
-                }
-                return output;
-            }
-            catch (Exception e) {
-                e.printStackTrace();
-                return output;
-            }
-        });
+    public DocumentCursor cursor(TransactionContext tcx, int batchSize) {
+        return new DocumentCursor(tcx, this, docSpace.range().begin, docSpace.range().end, batchSize);
     }
 
     /**
-     * Returns a single document based on unique id
+     * Streams all objects in the docSpace, assembling one document at a time
+     *
      * @param tcx
-     * @param uniqueId
-     * @return
+     * @param batchSize
+     * @return Stream of Objects decoded by the codec or described in a primitive map
      */
-    public Object getDoc(TransactionContext tcx, final Object uniqueId){
-        return getDoc(tcx, uniqueId, Tuple.from());
+    public Stream<Object> streamAll(TransactionContext tcx, int batchSize) {
+        return toStream(cursor(tcx, batchSize)).map(this::fromKeyValues);
     }
 
     /**
-     * Returns a list of unique identifiers as tuples based on a tuple query.
+     * Streams the objects in the docSpace which satisfy the query, assembling one document at a time
      *
      * @param tcx
-     * @param queryPath
-     * @return
+     * @param query
+     * @param batchSize
+     * @return Stream of Objects decoded by the codec or described in a primitive map
      */
-    public List<Tuple> getIdsFromIndex(TransactionContext tcx, Tuple queryPath) {
-        List<Tuple> output = new ArrayList<>();
+    public Stream<Object> streamByQuery(TransactionContext tcx, Query query, int batchSize) {
+        return streamByQuery(tcx, query, batchSize, null);
+    }
 
-        return tcx.run(tr -> {
-            try {
-                LOGGER.info("querying index for " + queryPath);
-                Future<byte[]> v = tr.get(indexSpace.pack(queryPath));
-                if(v.get() != null) {
-                    Tuple value = Tuple.fromBytes(v.get());
-                    output.add(value);
-                    return output;
-                }
-                for (KeyValue kv : tr.getRange(indexSpace.range(queryPath))) {
-                    Tuple value = Tuple.fromBytes(kv.getValue());
-                    output.add(value);
-                }
-                return output;
-            }
-            catch (Exception e) {
-                e.printStackTrace();
-                return output;
-            }
-        });
+    /**
+     * Streams the objects in the docSpace which satisfy the query, keeping only the values under the supplied
+     * paths. Documents are still read whole to be matched, but only the projected values are decoded
+     *
+     * @param tcx
+     * @param query
+     * @param batchSize
+     * @param paths paths to keep, or null to keep every value
+     * @return Stream of Objects decoded by the codec or described in a primitive map
+     */
+    public Stream<Object> streamByQuery(TransactionContext tcx, Query query, int batchSize, List<Tuple> paths) {
+        CompiledQuery matcher = query.compile();
+        return toStream(cursor(tcx, batchSize))
+                .filter(doc -> matches(query, matcher, doc))
+                .map(doc -> paths == null ? fromKeyValues(doc) : decode(project(keyValuesToTuples(doc), paths)));
     }
 
     /**
-     * Methods below were copied from https://apple.github.io/foundationdb/hierarchical-documents-java.html
+     * Streams the objects with keys in a sub-range of the docSpace. Pass a `null` query to return every
+     * object in the range. The range should come from `getScanRanges`, so that no document crosses its ends
+     *
+     * @param tcx
+     * @param range
+     * @param query
+     * @param batchSize
+     * @return Stream of Objects decoded by the codec or described in a primitive map
      */
-    public String getNewID(TransactionContext tcx){
-        return tcx.run(tr -> {
-            boolean found = false;
-            int newID;
-            do {
-                newID = (int)(Math.random()*100000000);
-                found = true;
-                for(KeyValue kv : tr.getRange(docSpace.range(Tuple.from(newID)))){
-                    // If not empty, this is false.
-                    found = false;
-                    break;
-                }
-            } while(!found);
-            return String.valueOf(newID);
-        });
+    public Stream<Object> streamRange(TransactionContext tcx, Range range, Query query, int batchSize) {
+        CompiledQuery matcher = query == null ? null : query.compile();
+        return toStream(new DocumentCursor(tcx, this, range.begin, range.end, batchSize))
+                .filter(doc -> matcher == null || matches(query, matcher, doc))
+                .map(this::fromKeyValues);
     }
 
-    public Object getDoc(TransactionContext tcx, final Object ID, final Tuple prefix){
-        return tcx.run(tr -> {
-            try {
-                Future<byte[]> v = tr.get(docSpace.pack(Tuple.from(ID).addAll(prefix)));
-                if (v.get() != null) {
-                    // One single item.
-                    ArrayList<Tuple> vals = new ArrayList<>();
-                    vals.add(prefix.addAll(Tuple.fromBytes(v.get())));
-                    return fromTuples(vals);
-                } else {
-                    // Multiple items.
-                    ArrayList<Tuple> vals = new ArrayList<>();
-                    for (KeyValue kv : tr.getRange(docSpace.range(Tuple.from(ID).addAll(prefix)))) {
-                        vals.add(docSpace.unpack(kv.getKey()).popFront().addAll(Tuple.fromBytes(kv.getValue())));
-                    }
-                    return fromTuples(vals);
-                }
-            }
-            catch (Exception e) {
-                return null;
+    /**
+     * Splits the docSpace into up to `maxRanges` contiguous sub-ranges which can be scanned in parallel. The
+     * splits follow the shard boundaries of the cluster when there are enough of them, otherwise the docSpace
+     * is split evenly on the leading bytes of the unique ids. Every split is moved to the start of the
+     * document it falls in, so each document belongs to exactly one range
+     *
+     * @param db
+     * @param maxRanges
+     * @return the ranges, in key order
+     */
+    public List<Range> getScanRanges(Database db, int maxRanges) {
+        Range range = docSpace.range();
+        if(maxRanges <= 1) {
+            return Collections.singletonList(range);
+        }
+
+        List<byte[]> boundaries = getShardBoundaries(db, range);
+        if(boundaries.size() < maxRanges - 1) {
+            LOGGER.debug("found " + boundaries.size() + " shard boundaries, splitting on unique ids");
+            boundaries = getIdBoundaries(db, maxRanges);
+        }
+
+        // keep the documents whole and drop splits which don't leave anything between them
+        TreeSet<byte[]> splits = new TreeSet<>(ByteArrayUtil::compareUnsigned);
+        for(byte[] boundary : boundaries) {
+            byte[] split = toDocumentBoundary(boundary);
+            if(ByteArrayUtil.compareUnsigned(split, range.begin) > 0
+                    && ByteArrayUtil.compareUnsigned(split, range.end) < 0) {
+                splits.add(split);
             }
-        });
+        }
+
+        // with more shards than ranges, merge neighbouring shards
+        List<byte[]> sorted = new ArrayList<>(splits);
+        int count = Math.min(maxRanges, sorted.size() + 1);
+        List<Range> output = new ArrayList<>();
+        byte[] begin = range.begin;
+        for(int i = 1; i < count; i++) {
+            byte[] end = sorted.get((int) ((long) i * sorted.size() / count));
+            output.add(new Range(begin, end));
+            begin = end;
+        }
+        output.add(new Range(begin, range.end));
+        return output;
     }
 
-    @SuppressWarnings("unchecked")
-    private static ArrayList<Tuple> toTuplesSwitch(Object o){
-        if(o instanceof ArrayList){
-            return toTuples((ArrayList<Object>) o);
-        } else if(o instanceof Map){
-            return toTuples((Map<Object,Object>) o);
-        } else {
-            return toTuples(o);
+    private List<byte[]> getShardBoundaries(Database db, Range range) {
+        try (CloseableAsyncIterator<byte[]> boundaries = LocalityUtil.getBoundaryKeys(db, range.begin, range.end)) {
+            return AsyncUtil.collectRemaining(boundaries).join();
+        }
+        catch (RuntimeException e) {
+            LOGGER.debug("unable to read shard boundaries for " + cls.getName(), e);
+            return new ArrayList<>();
         }
     }
 
-    private static ArrayList<Tuple> toTuples(ArrayList<Object> item){
-        if(item.isEmpty()){
-            ArrayList<Tuple> val = new ArrayList<>();
-            val.add(Tuple.from(EMPTY_ARRAY, null));
-            return val;
-        } else {
-            ArrayList<Tuple> val = new ArrayList<>();
-            for(int i = 0; i < item.size(); i++){
-                for(Tuple sub : toTuplesSwitch(item.get(i))){
-                    val.add(Tuple.from(i).addAll(sub));
-                }
-            }
-            return val;
+    /**
+     * Splits the ids evenly on the first byte where the smallest and largest keys in the docSpace differ
+     */
+    private List<byte[]> getIdBoundaries(Database db, int count) {
+        Range range = docSpace.range();
+        List<KeyValue> first = db.read(tr -> tr.getRange(range, 1).asList().join());
+        List<KeyValue> last = db.read(tr -> tr.getRange(range, 1, true).asList().join());
+        if(first.isEmpty() || last.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        byte[] low = first.get(0).getKey();
+        byte[] high = last.get(0).getKey();
+        int position = docSpace.getKey().length;
+        while(position < low.length && position < high.length && low[position] == high[position]) {
+            position++;
+        }
+        int lowByte = position < low.length ? low[position] & 0xff : 0;
+        int highByte = position < high.length ? high[position] & 0xff : 0xff;
+
+        List<byte[]> output = new ArrayList<>();
+        for(int i = 1; i < count; i++) {
+            byte[] boundary = Arrays.copyOf(low, position + 1);
+            boundary[position] = (byte) (lowByte + (highByte - lowByte + 1) * i / count);
+            output.add(boundary);
         }
+        return output;
     }
 
-    private static ArrayList<Tuple> toTuples(Map<Object,Object> item){
-        if(item.isEmpty()){
-            ArrayList<Tuple> val = new ArrayList<>();
-            val.add(Tuple.from(EMPTY_OBJECT, null));
-            return val;
-        } else {
-            ArrayList<Tuple> val = new ArrayList<>();
-            for(Entry<Object,Object> e : item.entrySet()){
-                for(Tuple sub : toTuplesSwitch(e.getValue())){
-                    val.add(Tuple.from(e.getKey()).addAll(sub));
-                }
-            }
-            return val;
+    /**
+     * Moves a key back to the start of the document containing it. A key which ends inside the unique id
+     * element is already between two documents, since packed ids never are a prefix of one another
+     */
+    private byte[] toDocumentBoundary(byte[] key) {
+        if(!docSpace.contains(key)) {
+            return key;
         }
+        int end = TupleBytes.elementEnd(key, docSpace.getKey().length);
+        return end < 0 ? key : Arrays.copyOf(key, end);
     }
 
-    private static ArrayList<Tuple> toTuples(Object item){
-        ArrayList<Tuple> val = new ArrayList<>();
-        val.add(Tuple.from(item));
-        return val;
+    // packed documents are unpacked, field documents are matched on their raw key-values
+    private boolean matches(Query query, CompiledQuery matcher, List<KeyValue> doc) {
+        if(isPacked(doc) || hasCounters(doc)) {
+            return keyValuesToTuples(doc).stream().anyMatch(query::isSatisfiedBy);
+        }
+        return matcher.matches(doc, getDocumentPrefixLength(doc.get(0).getKey()));
     }
 
-    private static ArrayList<Tuple> getTruncated(ArrayList<Tuple> vals){
-        ArrayList<Tuple> list = new ArrayList<>();
-        for(Tuple val : vals){
-            list.add(val.popFront());
+    /**
+     * Returns the length of the packed docSpace and unique id prefix of a document key
+     *
+     * @param key
+     * @return
+     */
+    int getDocumentPrefixLength(byte[] key) {
+        int end = TupleBytes.elementEnd(key, docSpace.getKey().length);
+        if(end < 0) {
+            end = docSpace.pack(Tuple.from(docSpace.unpack(key).get(0))).length;
         }
-        return list;
+        return end;
     }
 
-    public Object insertDoc(TransactionContext tcx, Map<Object,Object> doc){
-        return tcx.run(tr -> {
-            for(Tuple t : toTuples(doc)){
-                Object uniqueId = doc.get(uniqueIdName);
-                tr.set(docSpace.pack(Tuple.from(uniqueId).addAll(t.popBack())),
-                        Tuple.from(t.get(t.size() - 1)).pack());
-                Tuple path = t.popBack();
-                if(canUseIndex(tcx, path)) {
-                    LOGGER.debug("Using index for query");
-                    addToIndex(tcx, t, uniqueId);
-                }
-            }
-            return doc.get(uniqueIdName);
-        });
+    private static <T> Stream<T> toStream(Iterator<T> iterator) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Returns a list of values based on the specified query. If no values match the query, an empty
+     * list is returned
+     *
+     * @param tcx
+     * @param query
+     * @return List of Objects decoded by the codec or described in a primitive map
+     */
+    public List<Object> getByQuery(Transaction tcx, Query query) {
+        return streamByQuery(tcx, query, DEFAULT_BATCH_SIZE).collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the objects which satisfy the query without blocking. The docSpace is read in batches of
+     * `batchSize` key-values, each in its own read transaction, and each batch is matched and decoded on the
+     * executor before the next one is read. A document cut off at the end of a batch is held back and
+     * completed by the next batch. Pass a `null` query to return every object
+     *
+     * @param tcx
+     * @param query
+     * @param batchSize
+     * @param executor runs the matching and decoding
+     * @return List of Objects decoded by the codec or described in a primitive map
+     */
+    public CompletableFuture<List<Object>> getByQueryAsync(ReadTransactionContext tcx, Query query, int batchSize,
+                                                           Executor executor) {
+        CompiledQuery matcher = query == null ? null : query.compile();
+        AsyncScan scan = new AsyncScan(doc -> matcher == null || matches(query, matcher, doc));
+        return AsyncUtil.whileTrue(() -> tcx.readAsync(tr -> ProfiledDatabase.forScan(tcx, tr)
+                .getRange(KeySelector.firstGreaterOrEqual(scan.begin),
+                        KeySelector.firstGreaterOrEqual(docSpace.range().end), batchSize).asList())
+                .thenApplyAsync(kvs -> scan.accept(kvs, batchSize), executor), executor)
+                .thenApply(done -> scan.output);
+    }
+
+    /**
+     * State of `getByQueryAsync`. The batches are read one after another, so only one of them touches it at a
+     * time
+     */
+    private class AsyncScan {
+        private final Predicate<List<KeyValue>> filter;
+        private final List<Object> output = new ArrayList<>();
+        private byte[] begin = docSpace.range().begin;
+        private List<KeyValue> doc = new ArrayList<>();
+        private byte[] prefix;
+
+        AsyncScan(Predicate<List<KeyValue>> filter) {
+            this.filter = filter;
+        }
+
+        // returns true while there are more batches to read
+        boolean accept(List<KeyValue> kvs, int batchSize) {
+            for(KeyValue kv : kvs) {
+                if(prefix != null && !ByteArrayUtil.startsWith(kv.getKey(), prefix)) {
+                    finishDocument();
+                }
+                if(prefix == null) {
+                    prefix = Arrays.copyOf(kv.getKey(), getDocumentPrefixLength(kv.getKey()));
+                }
+                doc.add(kv);
+            }
+            if(kvs.size() < batchSize) {
+                if(prefix != null) {
+                    finishDocument();
+                }
+                return false;
+            }
+            // continue just past the last key we have seen
+            begin = ByteArrayUtil.join(kvs.get(kvs.size() - 1).getKey(), new byte[]{0x00});
+            return true;
+        }
+
+        private void finishDocument() {
+            if(filter.test(doc)) {
+                output.add(fromKeyValues(doc));
+            }
+            doc = new ArrayList<>();
+            prefix = null;
+        }
+    }
+
+    /**
+     * Returns up to `limit` objects which satisfy the query, starting after the `after` key. Pass a `null`
+     * query to page through every object. The continuation of the returned page is the last key of the
+     * last document read, so the next page resumes with a range read right after it
+     *
+     * @param tcx
+     * @param query
+     * @param limit
+     * @param after last key returned by the previous page, or null to start from the beginning
+     * @return Page of Objects decoded by the codec or described in a primitive map
+     */
+    public Page<Object> getPage(TransactionContext tcx, Query query, int limit, byte[] after) {
+        byte[] begin = docSpace.range().begin;
+        if(after != null) {
+            if(!docSpace.contains(after)) {
+                throw new IllegalArgumentException("continuation does not belong to " + cls.getName());
+            }
+            begin = ByteArrayUtil.join(after, new byte[]{0x00});
+        }
+
+        // size batches to the page rather than reading a full batch for a handful of small documents
+        DocumentCursor cursor = new DocumentCursor(tcx, this, begin, docSpace.range().end,
+                Math.min(DEFAULT_BATCH_SIZE, Math.max(limit * 16, 64)));
+        CompiledQuery matcher = query == null ? null : query.compile();
+        List<Object> output = new ArrayList<>();
+        byte[] last = null;
+        while(output.size() < limit && cursor.hasNext()) {
+            List<KeyValue> doc = cursor.next();
+            last = doc.get(doc.size() - 1).getKey();
+
+            if(matcher == null || matches(query, matcher, doc)) {
+                output.add(fromKeyValues(doc));
+            }
+        }
+        return new Page<>(output, cursor.hasNext() ? Page.encodeContinuation(last) : null);
+    }
+
+    /**
+     * Returns a single document based on unique id
+     * @param tcx
+     * @param uniqueId
+     * @return
+     */
+    public Object getDoc(TransactionContext tcx, final Object uniqueId){
+        List<Object> docs = getDocs(tcx, Collections.singletonList(uniqueId));
+        return docs.isEmpty() ? null : docs.get(0);
+    }
+
+    /**
+     * Returns a single document based on unique id, serving it from the cache when the version of the
+     * collection hasn't changed since it was cached
+     *
+     * @param tcx
+     * @param uniqueId
+     * @param cache
+     * @return
+     */
+    public Object getDoc(TransactionContext tcx, final Object uniqueId, DocumentCache cache) {
+        List<Tuple> cached = cache.getIfFresh(uniqueId);
+        if(cached != null) {
+            return decode(cached);
+        }
+        return tcx.run(tr -> {
+            long version = getVersion(tr).join();
+            List<Tuple> tuples = cache.get(uniqueId, version);
+            if(tuples == null) {
+                List<KeyValue> kvs = tr.getRange(docSpace.range(Tuple.from(uniqueId))).asList().join();
+                if(kvs.isEmpty()) {
+                    return null;
+                }
+                tuples = keyValuesToTuples(kvs);
+                int size = 0;
+                for(KeyValue kv : kvs) {
+                    size += kv.getKey().length + kv.getValue().length;
+                }
+                cache.put(uniqueId, version, tuples, size);
+            }
+            return decode(tuples);
+        });
+    }
+
+    /**
+     * Reads the version of the collection, which every write increments
+     *
+     * @param tr
+     * @return the version, 0 before the first write
+     */
+    public CompletableFuture<Long> getVersion(ReadTransaction tr) {
+        return tr.get(versionKey).thenApply(value -> value == null ? 0 : decodeCounter(value));
+    }
+
+    /**
+     * Returns a key of the collection kept by an id strategy, outside the docSpace
+     *
+     * @param name
+     * @return
+     */
+    byte[] getIdCounterKey(String name) {
+        return idSpace.pack(Tuple.from(name));
+    }
+
+    // an atomic add, so writers never conflict on the key
+    private void bumpVersion(Transaction tr) {
+        tr.mutate(MutationType.ADD, versionKey, encodeCounter(1));
+    }
+
+    /**
+     * Returns the documents for a set of unique ids. Every range read is issued up front in a single
+     * transaction and then joined, so the lookups share one round trip instead of running back to back.
+     * Documents are returned in the order of the ids, and ids with no document are skipped
+     *
+     * @param tcx
+     * @param uniqueIds
+     * @return List of Objects decoded by the codec or described in a primitive map
+     */
+    public List<Object> getDocs(TransactionContext tcx, final Collection<?> uniqueIds) {
+        return tcx.run(tr -> fromDocuments(readDocuments(tr, uniqueIds).join()));
+    }
+
+    /**
+     * Reads the documents for a set of unique ids without blocking. The range reads are issued together in one
+     * read transaction, and the documents are decoded on the executor once they have all arrived, outside of
+     * the transaction and off the FDB network thread
+     *
+     * @param tcx
+     * @param uniqueIds
+     * @param executor runs the decoding
+     * @return List of Objects decoded by the codec or described in a primitive map, in the order of the ids
+     */
+    public CompletableFuture<List<Object>> getDocsAsync(ReadTransactionContext tcx, final Collection<?> uniqueIds,
+                                                        Executor executor) {
+        return tcx.readAsync(tr -> readDocuments(tr, uniqueIds)).thenApplyAsync(this::fromDocuments, executor);
+    }
+
+    private CompletableFuture<List<List<KeyValue>>> readDocuments(ReadTransaction tr, Collection<?> uniqueIds) {
+        List<CompletableFuture<List<KeyValue>>> reads = new ArrayList<>(uniqueIds.size());
+        for(Object id : uniqueIds) {
+            reads.add(tr.getRange(docSpace.range(Tuple.from(id))).asList());
+        }
+        return AsyncUtil.getAll(reads);
+    }
+
+    // ids with no document read as no key-values, and are skipped
+    private List<Object> fromDocuments(List<List<KeyValue>> docs) {
+        List<Object> output = new ArrayList<>(docs.size());
+        for(List<KeyValue> kvs : docs) {
+            if(!kvs.isEmpty()) {
+                output.add(fromKeyValues(kvs));
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Returns the documents for a set of unique ids, reading only the values under the supplied paths. Each
+     * path of each document is a separate range read, and all of them are issued up front in one transaction,
+     * along with a read of the first key of each document. Documents are returned in the order of the ids, and
+     * ids with no document are skipped
+     *
+     * @param tcx
+     * @param uniqueIds
+     * @param paths paths of the values to read
+     * @return List of Objects decoded by the codec or described in a primitive map
+     */
+    public List<Object> getDocs(TransactionContext tcx, final Collection<?> uniqueIds, final List<Tuple> paths) {
+        return tcx.run(tr -> {
+            List<List<CompletableFuture<List<KeyValue>>>> reads = new ArrayList<>(uniqueIds.size());
+            // tells a document without any of the paths from one which doesn't exist
+            List<CompletableFuture<List<KeyValue>>> probes = new ArrayList<>(uniqueIds.size());
+            for(Object id : uniqueIds) {
+                probes.add(tr.getRange(docSpace.range(Tuple.from(id)), 1).asList());
+                // packed documents can't be read in part, so their chunks are read alongside the paths
+                List<CompletableFuture<List<KeyValue>>> docReads = new ArrayList<>(paths.size() + 1);
+                docReads.add(tr.getRange(getPackedRange(id)).asList());
+                for(Tuple path : paths) {
+                    // the value at the path itself, followed by everything below it
+                    byte[] key = docSpace.pack(Tuple.from(id).addAll(path));
+                    docReads.add(tr.getRange(key, ByteArrayUtil.join(key, new byte[]{(byte) 0xff})).asList());
+                }
+                reads.add(docReads);
+            }
+
+            List<Object> output = new ArrayList<>(reads.size());
+            Iterator<CompletableFuture<List<KeyValue>>> probed = probes.iterator();
+            for(List<CompletableFuture<List<KeyValue>>> docReads : reads) {
+                CompletableFuture<List<KeyValue>> probe = probed.next();
+                // overlapping paths read some keys twice
+                TreeMap<byte[], KeyValue> kvs = new TreeMap<>(ByteArrayUtil::compareUnsigned);
+                for(CompletableFuture<List<KeyValue>> read : docReads) {
+                    for(KeyValue kv : read.join()) {
+                        kvs.put(kv.getKey(), kv);
+                    }
+                }
+                if(!kvs.isEmpty()) {
+                    output.add(decode(project(keyValuesToTuples(new ArrayList<>(kvs.values())), paths)));
+                }
+                else if(!probe.join().isEmpty()) {
+                    output.add(decode(Collections.emptyList()));
+                }
+            }
+            return output;
+        });
+    }
+
+    /**
+     * Keeps the tuples of path and value which are at or below one of the paths
+     *
+     * @param tuples
+     * @param paths
+     * @return
+     */
+    private static List<Tuple> project(List<Tuple> tuples, List<Tuple> paths) {
+        List<Tuple> output = new ArrayList<>();
+        for(Tuple t : tuples) {
+            for(Tuple path : paths) {
+                if(t.size() > path.size() && t.getItems().subList(0, path.size()).equals(path.getItems())) {
+                    output.add(t);
+                    break;
+                }
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Returns a list of unique identifiers as tuples based on a tuple query.
+     *
+     * @param tcx
+     * @param queryPath
+     * @return
+     */
+    public List<Tuple> getIdsFromIndex(TransactionContext tcx, Tuple queryPath) {
+        return tcx.run(tr -> {
+            LOGGER.debug("querying index for " + queryPath);
+            List<Tuple> output = new ArrayList<>();
+            for (KeyValue kv : tr.getRange(indexSpace.range(queryPath))) {
+                output.add(getIdFromIndexKey(kv.getKey()));
+            }
+            return output;
+        });
+    }
+
+    /**
+     * Returns the unique identifiers, as tuples, of the documents matching a query on an indexed path. Equality
+     * is a prefix scan of `(path, value)`, `in` issues one prefix scan per value in parallel, and the range
+     * operators are a single scan between the index keys of their bounds
+     *
+     * @param tcx
+     * @param query
+     * @return
+     */
+    public List<Tuple> getIdsFromIndex(TransactionContext tcx, Query query) {
+        return tcx.run(tr -> readIdsFromIndex(tr, query).join());
+    }
+
+    /**
+     * Returns the unique identifiers, as tuples, of the documents matching a query on an indexed path, without
+     * blocking. See `getIdsFromIndex`
+     *
+     * @param tcx
+     * @param query
+     * @return
+     */
+    public CompletableFuture<List<Tuple>> getIdsFromIndexAsync(ReadTransactionContext tcx, Query query) {
+        return tcx.readAsync(tr -> readIdsFromIndex(tr, query));
+    }
+
+    private CompletableFuture<List<Tuple>> readIdsFromIndex(ReadTransaction tr, Query query) {
+        LOGGER.debug("querying index for " + query);
+        List<CompletableFuture<List<KeyValue>>> reads = new ArrayList<>();
+        for(Range range : getIndexRanges(query)) {
+            reads.add(tr.getRange(range).asList());
+        }
+
+        return AsyncUtil.getAll(reads).thenApply(results -> {
+            Set<Tuple> output = new LinkedHashSet<>();
+            for(List<KeyValue> kvs : results) {
+                for(KeyValue kv : kvs) {
+                    output.add(getIdFromIndexKey(kv.getKey()));
+                }
+            }
+            return new ArrayList<>(output);
+        });
+    }
+
+    /**
+     * Returns a page of unique identifiers as tuples based on a query on an indexed path. The page is read with
+     * bounded range reads over the index, and its continuation is the last index key read
+     *
+     * @param tcx
+     * @param query
+     * @param limit
+     * @param after last key returned by the previous page, or null to start from the beginning
+     * @return
+     */
+    public Page<Tuple> getIdsFromIndex(TransactionContext tcx, Query query, int limit, byte[] after) {
+        if(after != null && !ByteArrayUtil.startsWith(after, indexSpace.pack(query.getPathAsTuple()))) {
+            throw new IllegalArgumentException("continuation does not belong to " + cls.getName());
+        }
+
+        return tcx.run(tr -> {
+            List<Tuple> output = new ArrayList<>();
+            byte[] last = null;
+            for(Range range : getIndexRanges(query)) {
+                byte[] begin = range.begin;
+                if(after != null) {
+                    if(ByteArrayUtil.compareUnsigned(after, range.end) >= 0) {
+                        // this range was finished by a previous page
+                        continue;
+                    }
+                    byte[] resume = ByteArrayUtil.join(after, new byte[]{0x00});
+                    if(ByteArrayUtil.compareUnsigned(resume, begin) > 0) {
+                        begin = resume;
+                    }
+                }
+
+                while(true) {
+                    int requested = limit - output.size() + 1;
+                    List<KeyValue> kvs = tr.getRange(begin, range.end, requested).asList().join();
+                    for(KeyValue kv : kvs) {
+                        if(output.size() == limit) {
+                            return new Page<>(output, Page.encodeContinuation(last));
+                        }
+                        last = kv.getKey();
+                        output.add(getIdFromIndexKey(last));
+                    }
+                    if(kvs.size() < requested) {
+                        break;
+                    }
+                    begin = ByteArrayUtil.join(last, new byte[]{0x00});
+                }
+            }
+            return new Page<>(output, null);
+        });
+    }
+
+    /**
+     * Returns the index key ranges to read for a query, in key order. They hold only matching entries, see
+     * `IndexRanges`
+     *
+     * @param query
+     * @return
+     */
+    private List<Range> getIndexRanges(Query query) {
+        return IndexRanges.forQuery(indexSpace, query);
+    }
+
+    /**
+     * Methods below were copied from https://apple.github.io/foundationdb/hierarchical-documents-java.html
+     */
+    public String getNewID(TransactionContext tcx){
+        return tcx.run(tr -> getNewIDAsync(tr).join());
+    }
+
+    /**
+     * Picks a random unique id which no document has, without blocking
+     *
+     * @param tr
+     * @return
+     */
+    public CompletableFuture<String> getNewIDAsync(ReadTransaction tr) {
+        String newID = String.valueOf((int)(Math.random()*100000000));
+        return tr.getRange(docSpace.range(Tuple.from(newID)), 1).asList()
+                .thenCompose(kvs -> kvs.isEmpty() ? CompletableFuture.completedFuture(newID) : getNewIDAsync(tr));
+    }
+
+    public Object getDoc(TransactionContext tcx, final Object ID, final Tuple prefix){
+        return tcx.run(tr -> {
+            try {
+                // the value at the prefix itself, followed by everything below it
+                byte[] key = docSpace.pack(Tuple.from(ID).addAll(prefix));
+                CompletableFuture<List<KeyValue>> values = tr.getRange(key,
+                        ByteArrayUtil.join(key, new byte[]{(byte) 0xff})).asList();
+                // a packed document is read whole, keeping the values under the prefix
+                CompletableFuture<List<KeyValue>> chunks = prefix.size() == 0
+                        ? CompletableFuture.completedFuture(Collections.emptyList())
+                        : tr.getRange(getPackedRange(ID)).asList();
+
+                List<KeyValue> kvs = new ArrayList<>(values.join());
+                kvs.addAll(chunks.join());
+                if (kvs.isEmpty()) {
+                    return null;
+                }
+                kvs.sort((a, b) -> ByteArrayUtil.compareUnsigned(a.getKey(), b.getKey()));
+                return fromTuples(new ArrayList<>(project(keyValuesToTuples(kvs), Collections.singletonList(prefix))));
+            }
+            catch (Exception e) {
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Flattens a document into tuples of path and value in a single walk. The path is kept in one list which
+     * grows and shrinks as the walk goes down and back up, and a tuple is only created for each leaf
+     */
+    @SuppressWarnings("unchecked")
+    static ArrayList<Tuple> toTuples(Map<Object,Object> item){
+        ArrayList<Tuple> output = new ArrayList<>();
+        flatten(item, new ArrayList<>(), output);
+        return output;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void flatten(Object value, List<Object> path, List<Tuple> output) {
+        if(value instanceof ArrayList) {
+            ArrayList<Object> list = (ArrayList<Object>) value;
+            if(list.isEmpty()) {
+                addLeaf(path, output, EMPTY_ARRAY, null);
+            }
+            for(int i = 0; i < list.size(); i++) {
+                path.add(i);
+                flatten(list.get(i), path, output);
+                path.remove(path.size() - 1);
+            }
+        }
+        else if(value instanceof Map) {
+            Map<Object, Object> map = (Map<Object, Object>) value;
+            if(map.isEmpty()) {
+                addLeaf(path, output, EMPTY_OBJECT, null);
+            }
+            for(Entry<Object, Object> e : map.entrySet()) {
+                path.add(e.getKey());
+                flatten(e.getValue(), path, output);
+                path.remove(path.size() - 1);
+            }
+        }
+        else {
+            addLeaf(path, output, Values.normalize(value));
+        }
+    }
+
+    private static void addLeaf(List<Object> path, List<Tuple> output, Object... values) {
+        List<Object> items = new ArrayList<>(path.size() + values.length);
+        items.addAll(path);
+        Collections.addAll(items, values);
+        output.add(Tuple.fromList(items));
+    }
+
+    private static ArrayList<Tuple> getTruncated(ArrayList<Tuple> vals){
+        ArrayList<Tuple> list = new ArrayList<>();
+        for(Tuple val : vals){
+            list.add(val.popFront());
+        }
+        return list;
+    }
+
+    public Object insertDoc(TransactionContext tcx, Map<Object,Object> doc){
+        return insertTuples(tcx, doc.get(uniqueIdName), toTuples(doc));
+    }
+
+    /**
+     * Stores a document which was encoded by the codec. The unique id is added to the tuples as the
+     * `uniqueIdName` field, as it is for documents stored from a Map
+     *
+     * @param tcx
+     * @param uniqueId
+     * @param tuples tuples of path and value
+     * @return the unique id
+     */
+    public Object insertObject(TransactionContext tcx, Object uniqueId, List<Tuple> tuples) {
+        return insertTuples(tcx, uniqueId, withId(uniqueId, tuples));
+    }
+
+    /**
+     * Stores a document which was encoded by the codec without blocking, like `insertObject`
+     *
+     * @param tr
+     * @param uniqueId
+     * @param tuples tuples of path and value
+     * @return the unique id, once the writes are in the transaction
+     */
+    public CompletableFuture<Object> insertObjectAsync(Transaction tr, Object uniqueId, List<Tuple> tuples) {
+        List<Tuple> doc = withId(uniqueId, tuples);
+        bumpVersion(tr);
+        return loadIndexStates(tr).thenCompose(indexStates -> readPrevious(tr, indexStates, uniqueId)
+                .thenApply(previous -> {
+                    writeTuples(tr, indexStates, uniqueId, doc, previous);
+                    return uniqueId;
+                }));
+    }
+
+    // the tuples of a document encoded by the codec, with its unique id as the `uniqueIdName` field
+    private List<Tuple> withId(Object uniqueId, List<Tuple> tuples) {
+        List<Tuple> doc = new ArrayList<>(tuples.size() + 1);
+        doc.addAll(tuples);
+        doc.add(Tuple.from(uniqueIdName, uniqueId));
+        return doc;
+    }
+
+    /**
+     * Stores documents which were encoded by the codec in one transaction, like `insertObject`. When the
+     * collection has indexes, the previous versions of the documents are read together rather than one by one
+     *
+     * @param tr
+     * @param uniqueIds
+     * @param docs tuples of path and value of each document, in the order of the ids
+     */
+    void insertObjects(Transaction tr, List<?> uniqueIds, List<List<Tuple>> docs) {
+        bumpVersion(tr);
+        Map<Tuple, Index.State> indexStates = getIndexStatesForWrite(tr);
+        List<CompletableFuture<List<KeyValue>>> reads = new ArrayList<>(uniqueIds.size());
+        for(Object id : uniqueIds) {
+            reads.add(readPrevious(tr, indexStates, id));
+        }
+        for(int i = 0; i < uniqueIds.size(); i++) {
+            Object id = uniqueIds.get(i);
+            writeTuples(tr, indexStates, id, withId(id, docs.get(i)), reads.get(i).join());
+        }
+    }
+
+    /**
+     * Replaces a document whole. An existing document under the id is cleared first, along with the index
+     * entries of its values which the new version doesn't have
+     */
+    private Object insertTuples(TransactionContext tcx, Object uniqueId, List<Tuple> tuples) {
+        return tcx.run(tr -> {
+            bumpVersion(tr);
+            Map<Tuple, Index.State> indexStates = getIndexStatesForWrite(tr);
+            writeTuples(tr, indexStates, uniqueId, tuples, readPrevious(tr, indexStates, uniqueId).join());
+            return uniqueId;
+        });
+    }
+
+    // the previous version of a document is only needed to find its index entries
+    private CompletableFuture<List<KeyValue>> readPrevious(Transaction tr, Map<Tuple, Index.State> indexStates,
+                                                           Object uniqueId) {
+        return indexStates.isEmpty() ? CompletableFuture.completedFuture(Collections.emptyList())
+                : tr.getRange(docSpace.range(Tuple.from(uniqueId))).asList();
+    }
+
+    private void writeTuples(Transaction tr, Map<Tuple, Index.State> indexStates, Object uniqueId,
+                             List<Tuple> tuples, List<KeyValue> previous) {
+        if(!previous.isEmpty()) {
+            Set<Tuple> entries = getIndexEntries(indexStates, tuples);
+            for(Tuple t : getIndexEntries(indexStates, keyValuesToTuples(previous))) {
+                if(!entries.contains(t)) {
+                    tr.clear(getIndexKey(t, uniqueId));
+                }
+            }
+        }
+        // stale fields, chunks and counters of the previous version, which may have been stored in either layout
+        tr.clear(docSpace.range(Tuple.from(uniqueId)));
+        if(storageMode == StorageMode.PACKED) {
+            writePacked(tr, uniqueId, tuples);
+        }
+        byte[] prefix = docSpace.pack(Tuple.from(uniqueId));
+        for(Tuple t : tuples){
+            if(storageMode == StorageMode.FIELDS) {
+                setField(tr, prefix, t);
+            }
+            if(!indexStates.isEmpty() && indexStates.containsKey(toIndexPath(t.popBack()))) {
+                addToIndex(tr, t, uniqueId);
+            }
+        }
+    }
+
+    /**
+     * Writes one field of a document. The tuple of path and value is packed once and split before its last
+     * element: the key is the document prefix followed by the packed path, and the value is the packed value
+     *
+     * @param tr
+     * @param prefix the packed docSpace and unique id
+     * @param t tuple of path and value
+     */
+    private static void setField(Transaction tr, byte[] prefix, Tuple t) {
+        byte[] packed = t.pack();
+        int split = TupleBytes.lastElementStart(packed);
+        if(split < 0) {
+            tr.set(ByteArrayUtil.join(prefix, t.popBack().pack()), Tuple.from(t.get(t.size() - 1)).pack());
+            return;
+        }
+        byte[] key = new byte[prefix.length + split];
+        System.arraycopy(prefix, 0, key, 0, prefix.length);
+        System.arraycopy(packed, 0, key, prefix.length, split);
+        tr.set(key, Arrays.copyOfRange(packed, split, packed.length));
+    }
+
+    /**
+     * Estimates the bytes written for a document: its keys and values, and the keys of its index entries
+     *
+     * @param tcx reads the index definitions when they aren't cached
+     * @param uniqueId
+     * @param tuples tuples of path and value
+     * @return
+     */
+    int estimateSize(TransactionContext tcx, Object uniqueId, List<Tuple> tuples) {
+        int id = Tuple.from(uniqueId).pack().length;
+        boolean indexed = !getCachedIndexStates(tcx).isEmpty();
+        int size = 0;
+        for(Tuple t : tuples) {
+            int packed = t.pack().length;
+            size += docSpace.getKey().length + id + packed;
+            if(indexed && isIndexed(tcx, t.popBack())) {
+                size += indexSpace.getKey().length + id + packed;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Counts the index entries written for a document
+     *
+     * @param tcx reads the index definitions when they aren't cached
+     * @param tuples tuples of path and value
+     * @return
+     */
+    int countIndexEntries(TransactionContext tcx, List<Tuple> tuples) {
+        if(getCachedIndexStates(tcx).isEmpty()) {
+            return 0;
+        }
+        int count = 0;
+        for(Tuple t : tuples) {
+            if(isIndexed(tcx, t.popBack())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Replaces a document with a new version, writing only what changed. Leaf keys whose value is unchanged are
+     * left alone, changed ones are set and removed ones are cleared, and only the index entries of changed
+     * indexed values are replaced. A document which doesn't exist yet is written whole
+     *
+     * @param tcx
+     * @param doc
+     * @return the unique id
+     */
+    public Object updateDoc(TransactionContext tcx, Map<Object,Object> doc) {
+        return updateTuples(tcx, doc.get(uniqueIdName), toTuples(doc));
+    }
+
+    /**
+     * Replaces a document with a new version which was encoded by the codec, like `updateDoc`
+     *
+     * @param tcx
+     * @param uniqueId
+     * @param tuples tuples of path and value
+     * @return the unique id
+     */
+    public Object updateObject(TransactionContext tcx, Object uniqueId, List<Tuple> tuples) {
+        return updateTuples(tcx, uniqueId, withId(uniqueId, tuples));
+    }
+
+    private Object updateTuples(TransactionContext tcx, Object uniqueId, List<Tuple> tuples) {
+        return tcx.run(tr -> {
+            bumpVersion(tr);
+            List<KeyValue> existing = tr.getRange(docSpace.range(Tuple.from(uniqueId))).asList().join();
+            boolean wasPacked = !existing.isEmpty() && isPacked(existing);
+            List<Tuple> previous = existing.isEmpty() ? Collections.emptyList() : keyValuesToTuples(existing);
+
+            if(storageMode == StorageMode.PACKED) {
+                // a packed document is a single value, so any change rewrites it
+                if(!wasPacked || !new HashSet<>(previous).equals(new HashSet<>(tuples))) {
+                    tr.clear(docSpace.range(Tuple.from(uniqueId)));
+                    writePacked(tr, uniqueId, tuples);
+                }
+            }
+            else {
+                Map<Tuple, Object> values = new HashMap<>();
+                Set<Tuple> counters = getCounterPaths(existing);
+                if(wasPacked) {
+                    tr.clear(docSpace.range(Tuple.from(uniqueId)));
+                }
+                else {
+                    for(Tuple t : previous) {
+                        values.put(t.popBack(), t.get(t.size() - 1));
+                    }
+                }
+                for(Tuple t : tuples) {
+                    Tuple path = t.popBack();
+                    Object value = t.get(t.size() - 1);
+                    if(!values.containsKey(path) || !Objects.equals(Tuple.from(values.get(path)), Tuple.from(value))) {
+                        tr.set(docSpace.pack(Tuple.from(uniqueId).addAll(path)), Tuple.from(value).pack());
+                        if(counters.contains(path)) {
+                            // the new value replaces the counted one
+                            tr.clear(docSpace.range(Tuple.from(uniqueId).addAll(path)));
+                        }
+                    }
+                    values.remove(path);
+                }
+                for(Tuple path : values.keySet()) {
+                    tr.clear(docSpace.pack(Tuple.from(uniqueId).addAll(path)));
+                    if(counters.contains(path)) {
+                        tr.clear(docSpace.range(Tuple.from(uniqueId).addAll(path)));
+                    }
+                }
+            }
+
+            // replace only the index entries of indexed values which changed
+            Map<Tuple, Index.State> indexStates = getIndexStatesForWrite(tr);
+            Set<Tuple> previousEntries = getIndexEntries(indexStates, previous);
+            Set<Tuple> entries = getIndexEntries(indexStates, tuples);
+            for(Tuple t : previousEntries) {
+                if(!entries.contains(t)) {
+                    tr.clear(getIndexKey(t, uniqueId));
+                }
+            }
+            for(Tuple t : entries) {
+                if(!previousEntries.contains(t)) {
+                    addToIndex(tr, t, uniqueId);
+                }
+            }
+            return uniqueId;
+        });
+    }
+
+    /**
+     * Deletes a document and its index entries
+     *
+     * @param tcx
+     * @param uniqueId
+     * @return true if the document existed
+     */
+    public boolean deleteDoc(TransactionContext tcx, Object uniqueId) {
+        return deleteDocs(tcx, Collections.singletonList(uniqueId), null) == 1;
+    }
+
+    /**
+     * Deletes every document which satisfies the query, along with its index entries. Matching documents are
+     * found with the index when the query path is indexed, and by scanning the docSpace otherwise. They are
+     * deleted in batches of `DELETE_BATCH_SIZE`, each in its own transaction which reads the documents again
+     * and skips any that no longer match
+     *
+     * @param db
+     * @param query
+     * @param batchSize maximum number of key-values read per batch when scanning
+     * @return the number of documents deleted
+     */
+    public long deleteWhere(Database db, Query query, int batchSize) {
+        Iterator<Object> ids;
+        if(db.run(tr -> canUseIndex(tr, query.getPathAsTuple()))) {
+            ids = db.run(tr -> getIdsFromIndex(tr, query)).stream().map(id -> id.get(0)).iterator();
+        }
+        else {
+            CompiledQuery matcher = query.compile();
+            ids = toStream(cursor(db, batchSize))
+                    .filter(doc -> matches(query, matcher, doc))
+                    .map(doc -> docSpace.unpack(doc.get(0).getKey()).get(0))
+                    .iterator();
+        }
+
+        long deleted = 0;
+        List<Object> batch = new ArrayList<>(DELETE_BATCH_SIZE);
+        while(ids.hasNext()) {
+            batch.add(ids.next());
+            if(batch.size() == DELETE_BATCH_SIZE || !ids.hasNext()) {
+                deleted += deleteDocs(db, batch, query);
+                batch.clear();
+            }
+        }
+        LOGGER.debug("deleted " + deleted + " documents matching " + query);
+        return deleted;
+    }
+
+    /**
+     * Deletes documents in a single transaction, reading them all in parallel first to find their index entries.
+     * Each document is cleared as one range
+     */
+    private int deleteDocs(TransactionContext tcx, List<Object> uniqueIds, Query query) {
+        return tcx.run(tr -> {
+            List<CompletableFuture<List<KeyValue>>> reads = new ArrayList<>(uniqueIds.size());
+            for(Object id : uniqueIds) {
+                reads.add(tr.getRange(docSpace.range(Tuple.from(id))).asList());
+            }
+
+            Map<Tuple, Index.State> indexStates = getIndexStatesForWrite(tr);
+            int deleted = 0;
+            for(int i = 0; i < uniqueIds.size(); i++) {
+                List<KeyValue> kvs = reads.get(i).join();
+                if(kvs.isEmpty()) {
+                    continue;
+                }
+                List<Tuple> tuples = keyValuesToTuples(kvs);
+                if(query != null && tuples.stream().noneMatch(query::isSatisfiedBy)) {
+                    continue;
+                }
+
+                Object id = uniqueIds.get(i);
+                for(Tuple t : getIndexEntries(indexStates, tuples)) {
+                    tr.clear(getIndexKey(t, id));
+                }
+                tr.clear(docSpace.range(Tuple.from(id)));
+                deleted++;
+            }
+            if(deleted > 0) {
+                bumpVersion(tr);
+            }
+            return deleted;
+        });
+    }
+
+    // the tuples of path and value which have an index entry
+    private static Set<Tuple> getIndexEntries(Map<Tuple, Index.State> indexStates, List<Tuple> tuples) {
+        Set<Tuple> output = new HashSet<>();
+        for(Tuple t : tuples) {
+            if(indexStates.containsKey(toIndexPath(t.popBack()))) {
+                output.add(t);
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Writes a document as one packed tuple of its path and value tuples, in key order so it decodes like a
+     * document stored as fields. The first byte flags compression, and the value is split into chunks of
+     * `CHUNK_SIZE` keyed by `(id, PACKED_DOCUMENT, chunk)`
+     */
+    private void writePacked(Transaction tr, Object uniqueId, List<Tuple> tuples) {
+        List<Tuple> sorted = new ArrayList<>(tuples);
+        sorted.sort(Tuple::compareTo);
+        byte[] packed = Tuple.fromList(sorted).pack();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(packed.length / 2 + 1);
+        if(compressed) {
+            bytes.write(PACKED_DEFLATED);
+            Deflater deflater = new Deflater();
+            try (DeflaterOutputStream out = new DeflaterOutputStream(bytes, deflater)) {
+                out.write(packed);
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            finally {
+                deflater.end();
+            }
+        }
+        else {
+            bytes.write(PACKED_RAW);
+            bytes.write(packed, 0, packed.length);
+        }
+
+        byte[] value = bytes.toByteArray();
+        for(int chunk = 0; chunk * CHUNK_SIZE < value.length; chunk++) {
+            int from = chunk * CHUNK_SIZE;
+            tr.set(docSpace.pack(Tuple.from(uniqueId, PACKED_DOCUMENT, chunk)),
+                    Arrays.copyOfRange(value, from, Math.min(value.length, from + CHUNK_SIZE)));
+        }
+    }
+
+    /**
+     * Reassembles the chunks of a packed document into its tuples of path and value
+     */
+    private List<Tuple> unpackDocument(List<KeyValue> kvs) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for(KeyValue kv : kvs) {
+            if(!isCounterKey(kv.getKey())) {
+                bytes.write(kv.getValue(), 0, kv.getValue().length);
+            }
+        }
+        byte[] value = bytes.toByteArray();
+
+        byte[] packed;
+        if(value[0] == PACKED_DEFLATED) {
+            Inflater inflater = new Inflater();
+            try (InflaterInputStream in = new InflaterInputStream(
+                    new ByteArrayInputStream(value, 1, value.length - 1), inflater)) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(value.length * 4);
+                byte[] buffer = new byte[8192];
+                int read;
+                while((read = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, read);
+                }
+                packed = out.toByteArray();
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            finally {
+                inflater.end();
+            }
+        }
+        else {
+            packed = Arrays.copyOfRange(value, 1, value.length);
+        }
+
+        Tuple document = Tuple.fromBytes(packed);
+        List<Tuple> tuples = new ArrayList<>(document.size());
+        for(int i = 0; i < document.size(); i++) {
+            tuples.add(document.getNestedTuple(i));
+        }
+        return tuples;
+    }
+
+    private boolean isPacked(List<KeyValue> doc) {
+        // counters sort before the chunks
+        for(KeyValue kv : doc) {
+            if(!isCounterKey(kv.getKey())) {
+                return isPackedKey(docSpace.unpack(kv.getKey()));
+            }
+        }
+        return false;
+    }
+
+    private static boolean isPackedKey(Tuple key) {
+        return key.size() == 3 && Long.valueOf(PACKED_DOCUMENT).equals(key.get(1));
+    }
+
+    private Range getPackedRange(Object uniqueId) {
+        return docSpace.range(Tuple.from(uniqueId, PACKED_DOCUMENT));
+    }
+
+    /**
+     * Converts the raw key-values of a single document into tuples of path and value, without the unique id
+     *
+     * @param kvs
+     * @return
+     */
+    private ArrayList<Tuple> keyValuesToTuples(List<KeyValue> kvs) {
+        if(isPacked(kvs)) {
+            ArrayList<Tuple> vals = new ArrayList<>(unpackDocument(kvs));
+            return hasCounters(kvs) ? applyCounters(vals, kvs) : vals;
+        }
+        ArrayList<Tuple> vals = new ArrayList<>(kvs.size());
+        boolean counted = false;
+        for(KeyValue kv : kvs) {
+            Tuple key = docSpace.unpack(kv.getKey()).popFront();
+            if(getCounterMarker(key) != null) {
+                counted = true;
+                continue;
+            }
+            vals.add(key.addAll(Tuple.fromBytes(kv.getValue())));
+        }
+        return counted ? applyCounters(vals, kvs) : vals;
+    }
+
+    /**
+     * Applies an atomic mutation to an integer field, without adding any read conflict ranges. The mutation is
+     * kept in a counter key next to the field, `(id, path..., marker)`, as a little-endian integer the database
+     * can update in place, so it never conflicts with other mutations or with writes of the document. Reads
+     * combine the field with its counter: adds are summed onto the stored value, and the max or min is taken
+     * with it. Adds can't be ordered with a max or min kept apart from them, so a field takes one kind of
+     * mutation until `updateDoc` writes it again, which replaces its counter. The field is checked with snapshot
+     * reads, so two kinds racing to be the first on a field can both be applied, in which case the adds are
+     * read before the max and min. Fields of indexed paths can't be mutated this way, as their index entries
+     * can't be kept up to date without a read
+     *
+     * @param tcx
+     * @param uniqueId
+     * @param path
+     * @param type one of `ADD`, `MAX` or `MIN`
+     * @param operand
+     * @throws IllegalArgumentException if the field is indexed, holds something other than an integer, or has
+     * a counter of another kind
+     */
+    public void mutate(TransactionContext tcx, Object uniqueId, Tuple path, MutationType type, long operand) {
+        long marker;
+        byte[] param;
+        switch (type) {
+            case ADD:
+                marker = COUNTER_ADD;
+                param = encodeCounter(operand);
+                break;
+            case MAX:
+                // the database compares MAX and MIN operands as unsigned, so those are stored with the sign flipped
+                marker = COUNTER_MAX;
+                param = encodeCounter(operand ^ Long.MIN_VALUE);
+                break;
+            case MIN:
+                marker = COUNTER_MIN;
+                param = encodeCounter(operand ^ Long.MIN_VALUE);
+                break;
+            default:
+                throw new IllegalArgumentException("unsupported mutation " + type);
+        }
+        tcx.run(tr -> {
+            // the checks are snapshot reads, so writes of the document and other mutations don't conflict with
+            // this one. The index definitions are only read when their cache is stale
+            ReadTransaction snapshot = tr.snapshot();
+            if(getCachedIndexStates(snapshot).containsKey(toIndexPath(path))) {
+                throw new IllegalArgumentException("the indexed path " + path + " can't be mutated atomically");
+            }
+            Tuple field = Tuple.from(uniqueId).addAll(path);
+            CompletableFuture<byte[]> value = snapshot.get(docSpace.pack(field));
+            CompletableFuture<List<KeyValue>> below = snapshot.getRange(docSpace.range(field)).asList();
+            CompletableFuture<List<KeyValue>> chunks = snapshot.getRange(getPackedRange(uniqueId)).asList();
+
+            for(KeyValue kv : below.join()) {
+                Tuple key = docSpace.unpack(kv.getKey()).popFront();
+                Long existing = key.size() == path.size() + 1 ? getCounterMarker(key) : null;
+                if(existing == null) {
+                    throw new IllegalArgumentException("the path " + path + " holds an object, not an integer");
+                }
+                if(existing != marker) {
+                    throw new IllegalArgumentException("the path " + path + " already has a "
+                            + getCounterType(existing) + " counter and can't take " + type + " until it is updated");
+                }
+            }
+            Object stored = null;
+            if(value.join() != null) {
+                stored = Tuple.fromBytes(value.join()).get(0);
+            }
+            else if(!chunks.join().isEmpty()) {
+                for(Tuple t : unpackDocument(chunks.join())) {
+                    if(t.size() > path.size() && t.getItems().subList(0, path.size()).equals(path.getItems())) {
+                        stored = t.size() == path.size() + 1 ? t.get(path.size()) : t;
+                    }
+                }
+            }
+            if(stored != null && !(stored instanceof Long)) {
+                throw new IllegalArgumentException("the path " + path + " holds " + stored + ", not an integer");
+            }
+
+            tr.mutate(type, docSpace.pack(field.add(marker)), param);
+            bumpVersion(tr);
+            return null;
+        });
+    }
+
+    private static MutationType getCounterType(long marker) {
+        return marker == COUNTER_ADD ? MutationType.ADD : marker == COUNTER_MAX ? MutationType.MAX : MutationType.MIN;
+    }
+
+    // atomic operands are little-endian
+    static byte[] encodeCounter(long value) {
+        return ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(value).array();
+    }
+
+    static long decodeCounter(byte[] value) {
+        return ByteBuffer.wrap(value).order(ByteOrder.LITTLE_ENDIAN).getLong();
+    }
+
+    // a cheap check which may also match a key ending in an integer with the same bytes
+    private static boolean isCounterKey(byte[] key) {
+        for(byte[] suffix : COUNTER_SUFFIXES) {
+            if(key.length > suffix.length && ByteArrayUtil.compareUnsigned(suffix,
+                    Arrays.copyOfRange(key, key.length - suffix.length, key.length)) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasCounters(List<KeyValue> doc) {
+        for(KeyValue kv : doc) {
+            if(isCounterKey(kv.getKey())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the counter marker ending a key path, or null. Array indexes and the empty markers are never
+     * negative counters
+     */
+    private static Long getCounterMarker(Tuple path) {
+        if(path.size() < 2) {
+            return null;
+        }
+        Object last = path.get(path.size() - 1);
+        if(last instanceof Long && ((Long) last == COUNTER_ADD || (Long) last == COUNTER_MAX
+                || (Long) last == COUNTER_MIN)) {
+            return (Long) last;
+        }
+        return null;
+    }
+
+    private Set<Tuple> getCounterPaths(List<KeyValue> kvs) {
+        Set<Tuple> output = new HashSet<>();
+        for(KeyValue kv : kvs) {
+            if(isCounterKey(kv.getKey())) {
+                Tuple key = docSpace.unpack(kv.getKey()).popFront();
+                if(getCounterMarker(key) != null) {
+                    output.add(key.popBack());
+                }
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Combines the counters of a document with the values of its fields, adding fields which only have
+     * counters. `mutate` only adds counters to integer fields
+     */
+    private ArrayList<Tuple> applyCounters(ArrayList<Tuple> vals, List<KeyValue> kvs) {
+        Map<Tuple, Map<Long, Long>> counters = new LinkedHashMap<>();
+        for(KeyValue kv : kvs) {
+            if(!isCounterKey(kv.getKey())) {
+                continue;
+            }
+            Tuple key = docSpace.unpack(kv.getKey()).popFront();
+            Long marker = getCounterMarker(key);
+            if(marker != null) {
+                long value = decodeCounter(kv.getValue());
+                counters.computeIfAbsent(key.popBack(), path -> new HashMap<>())
+                        .put(marker, marker == COUNTER_ADD ? value : value ^ Long.MIN_VALUE);
+            }
+        }
+
+        for(Entry<Tuple, Map<Long, Long>> entry : counters.entrySet()) {
+            Tuple path = entry.getKey();
+            int index = -1;
+            for(int i = 0; i < vals.size(); i++) {
+                if(vals.get(i).size() == path.size() + 1 && vals.get(i).popBack().equals(path)) {
+                    index = i;
+                    break;
+                }
+            }
+
+            Object stored = index < 0 ? null : vals.get(index).get(path.size());
+            Long value = stored instanceof Long ? (Long) stored : null;
+            Long add = entry.getValue().get(COUNTER_ADD);
+            Long max = entry.getValue().get(COUNTER_MAX);
+            Long min = entry.getValue().get(COUNTER_MIN);
+            if(add != null) {
+                value = value == null ? add : value + add;
+            }
+            if(max != null) {
+                value = value == null ? max : Math.max(value, max);
+            }
+            if(min != null) {
+                value = value == null ? min : Math.min(value, min);
+            }
+
+            if(index < 0) {
+                vals.add(path.add(value));
+            }
+            else {
+                vals.set(index, path.add(value));
+            }
+        }
+        vals.sort(Tuple::compareTo);
+        return vals;
+    }
+
+    private Object fromKeyValues(List<KeyValue> kvs) {
+        return decode(keyValuesToTuples(kvs));
+    }
+
+    /**
+     * Decodes the tuples of path and value of a document, in key order. A document without any values, such as
+     * a projection of fields it doesn't have, decodes to an empty object
+     */
+    private Object decode(List<Tuple> tuples) {
+        if(tuples.isEmpty()) {
+            return new HashMap<>();
+        }
+        PojoCodec codec = this.codec;
+        if(codec != null) {
+            Object obj = codec.decode(tuples);
+            if(obj != null) {
+                return obj;
+            }
+        }
+        return fromTuples(tuples instanceof ArrayList ? (ArrayList<Tuple>) tuples : new ArrayList<>(tuples));
     }
 
     private static Object fromTuples(ArrayList<Tuple> tuples){
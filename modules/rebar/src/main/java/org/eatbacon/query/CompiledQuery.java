@@ -0,0 +1,224 @@
+package org.eatbacon.query;
+
+import com.apple.foundationdb.KeyValue;
+import com.apple.foundationdb.tuple.Tuple;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A query compiled for matching raw document key-values. The path segments and values are packed once, so
+ * matching a key-value compares bytes in place instead of unpacking the key and value into tuples. Wildcard
+ * segments skip one packed element. Values which can't be compared as bytes, such as a double compared with an
+ * integer, are unpacked and checked with `Query.matchesValue`
+ */
+public class CompiledQuery {
+    private final Query query;
+    // packed alternatives for each path segment, null for a wildcard
+    private final byte[][][] segments;
+    // packed values for equality and `in`
+    private final byte[][] equalTo;
+    private final byte[] lower;
+    private final byte[] upper;
+    private final boolean lowerInclusive;
+    private final boolean upperInclusive;
+    private final boolean matchesNothing;
+
+    CompiledQuery(Query query) {
+        this.query = query;
+
+        String[] path = query.getPathSegments();
+        this.segments = new byte[path.length][][];
+        for(int i = 0; i < path.length; i++) {
+            segments[i] = Query.WILDCARD.equals(path[i]) ? null : packSegment(path[i]);
+        }
+
+        List<byte[]> values = new ArrayList<>();
+        byte[] lower = null;
+        byte[] upper = null;
+        switch (query.getOperator()) {
+            case EQ:
+                addEqualTo(values, query.getValue());
+                break;
+            case IN:
+                query.getValues().forEach(value -> addEqualTo(values, value));
+                break;
+            case LT:
+            case LTE:
+                upper = pack(query.getValue());
+                break;
+            case GT:
+            case GTE:
+                lower = pack(query.getValue());
+                break;
+            case BETWEEN:
+                lower = pack(query.getValue());
+                upper = pack(query.getUpperValue());
+                break;
+        }
+        this.equalTo = values.toArray(new byte[values.size()][]);
+        this.lower = lower;
+        this.upper = upper;
+        this.lowerInclusive = query.getOperator() != Query.Operator.GT;
+        this.upperInclusive = query.getOperator() != Query.Operator.LT;
+        // a missing bound can't be compared with anything
+        this.matchesNothing = query.getOperator() != Query.Operator.EQ && query.getOperator() != Query.Operator.IN
+                && (query.getValue() == null || query.getOperator() == Query.Operator.BETWEEN && upper == null);
+    }
+
+    /**
+     * Checks the key-values of a single document, stopping at the first match
+     *
+     * @param doc
+     * @param offset length of the key prefix holding the subspace and unique id
+     * @return true if any key-value matches
+     */
+    public boolean matches(List<KeyValue> doc, int offset) {
+        for(KeyValue kv : doc) {
+            if(matches(kv.getKey(), offset, kv.getValue())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks a single key-value. Matches the same key-values as `Query.isSatisfiedBy` does for the tuple of
+     * the path and value
+     *
+     * @param key
+     * @param offset length of the key prefix holding the subspace and unique id
+     * @param value
+     * @return
+     */
+    public boolean matches(byte[] key, int offset, byte[] value) {
+        if(matchesNothing) {
+            return false;
+        }
+        int position = offset;
+        for(byte[][] alternatives : segments) {
+            if(position >= key.length) {
+                return false;
+            }
+            if(alternatives == null) {
+                position = TupleBytes.elementEnd(key, position);
+                if(position < 0) {
+                    return matchesUnpacked(key, offset, value);
+                }
+                continue;
+            }
+
+            int end = -1;
+            for(byte[] alternative : alternatives) {
+                if(isElementAt(key, position, alternative)) {
+                    end = position + alternative.length;
+                    break;
+                }
+            }
+            if(end < 0) {
+                return false;
+            }
+            position = end;
+        }
+
+        // like `isSatisfiedBy`, a key deeper than the path is compared on its next element
+        if(position < key.length) {
+            int end = TupleBytes.elementEnd(key, position);
+            return end < 0 ? matchesUnpacked(key, offset, value) : matchesElement(key, position, end);
+        }
+        int end = TupleBytes.elementEnd(value, 0);
+        return end < 0 ? matchesUnpacked(key, offset, value) : matchesElement(value, 0, end);
+    }
+
+    private boolean matchesElement(byte[] bytes, int start, int end) {
+        int code = bytes[start] & 0xff;
+        if(query.getOperator() == Query.Operator.EQ || query.getOperator() == Query.Operator.IN) {
+            for(byte[] candidate : equalTo) {
+                if(end - start == candidate.length && TupleBytes.regionMatches(bytes, start, candidate)) {
+                    return true;
+                }
+            }
+            // integers and doubles are covered by the candidates, other numbers need to be unpacked
+            return TupleBytes.isNumeric(code) && TupleBytes.family(code) == -1 && matchesValue(bytes, start, end);
+        }
+
+        int family = TupleBytes.family(code);
+        for(byte[] bound : new byte[][]{lower, upper}) {
+            if(bound != null && (family == -1 || family != TupleBytes.family(bound[0] & 0xff))) {
+                return matchesValue(bytes, start, end);
+            }
+        }
+        if(lower != null) {
+            int result = TupleBytes.compareUnsigned(bytes, start, end, lower);
+            if(result < 0 || result == 0 && !lowerInclusive) {
+                return false;
+            }
+        }
+        if(upper != null) {
+            int result = TupleBytes.compareUnsigned(bytes, start, end, upper);
+            if(result > 0 || result == 0 && !upperInclusive) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean matchesValue(byte[] bytes, int start, int end) {
+        return query.matchesValue(Tuple.fromBytes(bytes, start, end - start).get(0));
+    }
+
+    private boolean matchesUnpacked(byte[] key, int offset, byte[] value) {
+        return query.isSatisfiedBy(Tuple.fromBytes(key, offset, key.length - offset).addAll(Tuple.fromBytes(value)));
+    }
+
+    /**
+     * Checks for a whole packed element at the position. Strings end in 0x00, which is followed by 0xff when
+     * it is an escaped 0x00 inside a longer string
+     */
+    private static boolean isElementAt(byte[] key, int position, byte[] element) {
+        if(!TupleBytes.regionMatches(key, position, element)) {
+            return false;
+        }
+        int next = position + element.length;
+        return next >= key.length || element[element.length - 1] != 0x00 || key[next] != (byte) 0xff;
+    }
+
+    // path segments are compared with the string form of the key element, so "0" also matches an array index
+    private static byte[][] packSegment(String segment) {
+        byte[] packed = Tuple.from(segment).pack();
+        try {
+            long index = Long.parseLong(segment);
+            if(String.valueOf(index).equals(segment)) {
+                return new byte[][]{packed, Tuple.from(index).pack()};
+            }
+        }
+        catch (NumberFormatException e) {
+            // not an array index
+        }
+        return new byte[][]{packed};
+    }
+
+    // numbers are equal by value, so integral values match both their integer and double encodings
+    private static void addEqualTo(List<byte[]> values, Object value) {
+        if(value == null) {
+            return;
+        }
+        values.add(pack(value));
+        if(value instanceof Long) {
+            long number = (Long) value;
+            if((long) (double) number == number) {
+                values.add(pack((double) number));
+            }
+        }
+        else if(value instanceof Double) {
+            double number = (Double) value;
+            if(number == Math.rint(number) && number >= Long.MIN_VALUE && number <= Long.MAX_VALUE) {
+                values.add(pack((long) number));
+            }
+        }
+    }
+
+    private static byte[] pack(Object value) {
+        return value == null ? null : Tuple.from(value).pack();
+    }
+}
@@ -1,7 +1,12 @@
 package org.eatbacon.query;
 
+import java.util.Collection;
+
+/**
+ * Static helpers to create queries. The variable items allow for a path to be supplied in segments, with the
+ * last item(s) being the value(s) to compare against
+ */
 public class Filters {
-    // TODO: This class should be expanded substantially to include common filters such as `in`, `less than`, etc.
     public static Query eq(String path, Object value) {
         return new Query().path(path).isEqualTo(value);
     }
@@ -14,13 +19,82 @@ public class Filters {
      * @return
      */
     public static Query eq(Object ... items) {
+        // TODO we need to check the type of value we're equaling to make sure it's supported
+        return path(items, 1).isEqualTo(items[items.length - 1]);
+    }
+
+    /**
+     * Creates a `less than` query, with the last item being the value
+     *
+     * @param items
+     * @return
+     */
+    public static Query lt(Object ... items) {
+        return path(items, 1).isLessThan(items[items.length - 1]);
+    }
+
+    /**
+     * Creates a `less than or equal` query, with the last item being the value
+     *
+     * @param items
+     * @return
+     */
+    public static Query lte(Object ... items) {
+        return path(items, 1).isLessThanOrEqualTo(items[items.length - 1]);
+    }
+
+    /**
+     * Creates a `greater than` query, with the last item being the value
+     *
+     * @param items
+     * @return
+     */
+    public static Query gt(Object ... items) {
+        return path(items, 1).isGreaterThan(items[items.length - 1]);
+    }
+
+    /**
+     * Creates a `greater than or equal` query, with the last item being the value
+     *
+     * @param items
+     * @return
+     */
+    public static Query gte(Object ... items) {
+        return path(items, 1).isGreaterThanOrEqualTo(items[items.length - 1]);
+    }
+
+    /**
+     * Creates an inclusive range query, with the last two items being the lower and upper bound
+     *
+     * @param items
+     * @return
+     */
+    public static Query between(Object ... items) {
+        return path(items, 2).isBetween(items[items.length - 2], items[items.length - 1]);
+    }
+
+    /**
+     * Creates a query matching any of a set of values, with the last item being a `Collection` of the values
+     *
+     * @param items
+     * @return
+     */
+    public static Query in(Object ... items) {
+        Object values = items.length > 0 ? items[items.length - 1] : null;
+        if(!(values instanceof Collection)) {
+            throw new IllegalArgumentException("the last item of an `in` query must be a collection of values");
+        }
+        return path(items, 1).isIn((Collection<?>) values);
+    }
+
+    private static Query path(Object[] items, int valueCount) {
+        if(items.length <= valueCount) {
+            throw new IllegalArgumentException("a query needs a path and " + valueCount + " value(s)");
+        }
         Query query = new Query();
-        int i;
-        for(i = 0; i < items.length - 1; i++) {
+        for(int i = 0; i < items.length - valueCount; i++) {
             query.path(items[i].toString());
         }
-
-        // TODO we need to check the type of value we're equaling to make sure it's supported
-        return query.isEqualTo(items[i]);
+        return query;
     }
 }
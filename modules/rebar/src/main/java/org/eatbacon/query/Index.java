@@ -4,6 +4,14 @@ import java.util.Arrays;
 import java.util.List;
 
 public class Index {
+    /**
+     * Indexes are `BUILDING` while existing documents are indexed. They are maintained on writes, but only
+     * used for queries once `READABLE`
+     */
+    public enum State {
+        BUILDING, READABLE
+    }
+
     private final String[] values;
 
     public Index(String ... values) {
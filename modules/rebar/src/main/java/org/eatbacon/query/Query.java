@@ -2,14 +2,24 @@ package org.eatbacon.query;
 
 import com.apple.foundationdb.tuple.Tuple;
 
+import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.stream.Collectors;
 
 public class Query {
     public static final String WILDCARD = "*";
+
+    public enum Operator {
+        EQ, LT, LTE, GT, GTE, BETWEEN, IN
+    }
+
     private List<String> path = new ArrayList<>();
+    private Operator operator = Operator.EQ;
     private Object value;
+    private Object upperValue;
+    private List<Object> values = new ArrayList<>();
 
     public Query path(String part) {
         path.add(part);
@@ -25,14 +35,80 @@ public class Query {
     }
 
     public Query isEqualTo(Object value) {
-        this.value = value;
+        return operator(Operator.EQ, value);
+    }
+
+    public Query isLessThan(Object value) {
+        return operator(Operator.LT, value);
+    }
+
+    public Query isLessThanOrEqualTo(Object value) {
+        return operator(Operator.LTE, value);
+    }
+
+    public Query isGreaterThan(Object value) {
+        return operator(Operator.GT, value);
+    }
+
+    public Query isGreaterThanOrEqualTo(Object value) {
+        return operator(Operator.GTE, value);
+    }
+
+    /**
+     * Matches values between the lower and upper bound, both inclusive
+     *
+     * @param lower
+     * @param upper
+     * @return
+     */
+    public Query isBetween(Object lower, Object upper) {
+        this.upperValue = Values.normalize(upper);
+        return operator(Operator.BETWEEN, lower);
+    }
+
+    public Query isIn(Collection<?> values) {
+        this.values = values.stream().map(Values::normalize).collect(Collectors.toList());
+        return operator(Operator.IN, null);
+    }
+
+    // values are normalized to the types documents are stored with, see `Values`
+    private Query operator(Operator operator, Object value) {
+        this.operator = operator;
+        this.value = Values.normalize(value);
         return this;
     }
 
+    public Operator getOperator() {
+        return operator;
+    }
+
+    /**
+     * The value being compared against. For `BETWEEN` queries, this is the lower bound
+     *
+     * @return
+     */
     public Object getValue() {
         return value;
     }
 
+    public Object getUpperValue() {
+        return upperValue;
+    }
+
+    public List<Object> getValues() {
+        return values;
+    }
+
+    /**
+     * Compiles the query for matching raw key-values. Compile once and reuse the result when checking many
+     * documents, rather than calling `isSatisfiedBy` for every tuple
+     *
+     * @return
+     */
+    public CompiledQuery compile() {
+        return new CompiledQuery(this);
+    }
+
     /**
      * The query object is responsible for checking to see if a tuple matches the criteria. This lets
      * development of query types live in this class
@@ -42,7 +118,6 @@ public class Query {
      */
     public boolean isSatisfiedBy(Tuple tuple) {
         int i;
-        // TODO: this is very inefficient to do over-and-over. Should revise to make it smarter
         for(i = 0; i < path.size(); i++) {
             if(tuple.size() <= i) {
                 return false;
@@ -56,21 +131,123 @@ public class Query {
         }
 
         if(tuple.size() > i) {
-            // TODO: lots to add here for different type support
-            if(tuple.get(i).equals(getValue())) {
-                return true;
-            }
+            return matchesValue(tuple.get(i));
         }
         return false;
     }
 
+    /**
+     * Checks a stored value against the operator of this query
+     *
+     * @param val
+     * @return true if the value satisfies the query
+     */
+    public boolean matchesValue(Object val) {
+        switch (operator) {
+            case EQ:
+                return isEqual(val, value);
+            case IN:
+                return values.stream().anyMatch(item -> isEqual(val, item));
+            case LT:
+                return isOrdered(val, value, false);
+            case LTE:
+                return isOrdered(val, value, true);
+            case GT:
+                return isOrdered(value, val, false);
+            case GTE:
+                return isOrdered(value, val, true);
+            case BETWEEN:
+                return isOrdered(value, val, true) && isOrdered(val, upperValue, true);
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isEqual(Object a, Object b) {
+        if(a instanceof Number && b instanceof Number) {
+            Integer result = compareValues(a, b);
+            return result != null && result == 0;
+        }
+        return a != null && a.equals(b);
+    }
+
+    /**
+     * Checks that `a` sorts before `b`. Values which can't be compared with each other are never ordered
+     */
+    private static boolean isOrdered(Object a, Object b, boolean inclusive) {
+        Integer result = compareValues(a, b);
+        return result != null && (result < 0 || inclusive && result == 0);
+    }
+
+    /**
+     * Compares two values of the same kind. Numbers are compared by value regardless of their type
+     *
+     * @param a
+     * @param b
+     * @return the comparison, or null if the values can't be compared
+     */
+    @SuppressWarnings("unchecked")
+    private static Integer compareValues(Object a, Object b) {
+        if(a == null || b == null) {
+            return null;
+        }
+        if(a instanceof Number && b instanceof Number) {
+            if(isIntegral(a) && isIntegral(b)) {
+                if(a instanceof BigInteger || b instanceof BigInteger) {
+                    return toBigInteger(a).compareTo(toBigInteger(b));
+                }
+                return Long.compare(((Number) a).longValue(), ((Number) b).longValue());
+            }
+            return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+        }
+        if(a.getClass().equals(b.getClass()) && a instanceof Comparable) {
+            return ((Comparable<Object>) a).compareTo(b);
+        }
+        return null;
+    }
+
+    private static boolean isIntegral(Object o) {
+        return o instanceof Long || o instanceof Integer || o instanceof Short || o instanceof Byte
+                || o instanceof BigInteger;
+    }
+
+    private static BigInteger toBigInteger(Object o) {
+        return o instanceof BigInteger ? (BigInteger) o : BigInteger.valueOf(((Number) o).longValue());
+    }
+
     @Override
     public String toString() {
-        return path.stream().collect(Collectors.joining(".")) + "=" + value;
+        String pathString = path.stream().collect(Collectors.joining("."));
+        switch (operator) {
+            case LT:
+                return pathString + "<" + value;
+            case LTE:
+                return pathString + "<=" + value;
+            case GT:
+                return pathString + ">" + value;
+            case GTE:
+                return pathString + ">=" + value;
+            case BETWEEN:
+                return pathString + " between " + value + " and " + upperValue;
+            case IN:
+                return pathString + " in " + values;
+            default:
+                return pathString + "=" + value;
+        }
     }
 
     public Tuple build() {
-        // TODO: not really safe to just `toString` the value
-        return getPathAsTuple().add(String.valueOf(value));
+        return build(value);
+    }
+
+    /**
+     * Builds the index key prefix for the query path and the supplied value. The value keeps its native tuple
+     * type, so index keys sort in the same order as the values
+     *
+     * @param value
+     * @return
+     */
+    public Tuple build(Object value) {
+        return getPathAsTuple().addObject(Values.normalize(value));
     }
 }
@@ -0,0 +1,152 @@
+package org.eatbacon.query;
+
+/**
+ * Helpers for reading packed tuples without unpacking them
+ */
+public class TupleBytes {
+    private static final int BYTES_CODE = 0x01;
+    private static final int STRING_CODE = 0x02;
+    private static final int NEG_INT_START = 0x0b;
+    private static final int INT_ZERO_CODE = 0x14;
+    private static final int POS_INT_END = 0x1d;
+    private static final int FLOAT_CODE = 0x20;
+    private static final int DOUBLE_CODE = 0x21;
+    private static final int FALSE_CODE = 0x26;
+    private static final int TRUE_CODE = 0x27;
+    private static final int UUID_CODE = 0x30;
+    private static final int VERSIONSTAMP_CODE = 0x33;
+
+    private TupleBytes() {
+    }
+
+    /**
+     * Returns the offset of the last top-level element of a packed tuple, so the tuple can be split into the
+     * packed tuple of its other elements and the packed last element without packing either again
+     *
+     * @param bytes
+     * @return the offset, or -1 if the tuple is empty or holds an element that can't be skipped
+     */
+    public static int lastElementStart(byte[] bytes) {
+        int start = -1;
+        int offset = 0;
+        while(offset < bytes.length) {
+            int end = elementEnd(bytes, offset);
+            if(end < 0) {
+                return -1;
+            }
+            start = offset;
+            offset = end;
+        }
+        return start;
+    }
+
+    /**
+     * Returns the offset just past the top-level tuple element starting at `offset`
+     *
+     * @param bytes
+     * @param offset
+     * @return the end of the element, or -1 if it is truncated or of a type that can't be skipped
+     */
+    public static int elementEnd(byte[] bytes, int offset) {
+        if(offset >= bytes.length) {
+            return -1;
+        }
+        int code = bytes[offset] & 0xff;
+        int end;
+        if(code == 0x00 || code == FALSE_CODE || code == TRUE_CODE) {
+            end = offset + 1;
+        }
+        else if(code == BYTES_CODE || code == STRING_CODE) {
+            // terminated by 0x00, with embedded 0x00 bytes escaped as 0x00 0xff
+            for(int i = offset + 1; i < bytes.length; i++) {
+                if(bytes[i] == 0x00) {
+                    if(i + 1 < bytes.length && bytes[i + 1] == (byte) 0xff) {
+                        i++;
+                        continue;
+                    }
+                    return i + 1;
+                }
+            }
+            return -1;
+        }
+        else if(code > NEG_INT_START && code < POS_INT_END) {
+            end = offset + 1 + Math.abs(code - INT_ZERO_CODE);
+        }
+        else if(code == NEG_INT_START || code == POS_INT_END) {
+            // arbitrary size integers carry their length in the next byte
+            if(offset + 1 >= bytes.length) {
+                return -1;
+            }
+            int length = bytes[offset + 1] & 0xff;
+            end = offset + 2 + (code == POS_INT_END ? length : length ^ 0xff);
+        }
+        else if(code == FLOAT_CODE) {
+            end = offset + 5;
+        }
+        else if(code == DOUBLE_CODE) {
+            end = offset + 9;
+        }
+        else if(code == UUID_CODE) {
+            end = offset + 17;
+        }
+        else if(code == VERSIONSTAMP_CODE) {
+            end = offset + 13;
+        }
+        else {
+            return -1;
+        }
+        return end <= bytes.length ? end : -1;
+    }
+
+    /**
+     * Groups type codes whose packed forms sort in value order among each other
+     *
+     * @param code the first byte of a packed element
+     * @return the family, or -1 for types which can't be compared as bytes
+     */
+    static int family(int code) {
+        if(code >= NEG_INT_START && code <= POS_INT_END) {
+            return INT_ZERO_CODE;
+        }
+        if(code == FALSE_CODE || code == TRUE_CODE) {
+            return FALSE_CODE;
+        }
+        if(code == BYTES_CODE || code == STRING_CODE || code == DOUBLE_CODE || code == UUID_CODE) {
+            return code;
+        }
+        return -1;
+    }
+
+    static boolean isNumeric(int code) {
+        return code >= NEG_INT_START && code <= POS_INT_END || code == FLOAT_CODE || code == DOUBLE_CODE;
+    }
+
+    /**
+     * Compares `a[offset, end)` with all of `b`, as unsigned bytes
+     */
+    static int compareUnsigned(byte[] a, int offset, int end, byte[] b) {
+        int length = Math.min(end - offset, b.length);
+        for(int i = 0; i < length; i++) {
+            int diff = (a[offset + i] & 0xff) - (b[i] & 0xff);
+            if(diff != 0) {
+                return diff;
+            }
+        }
+        return (end - offset) - b.length;
+    }
+
+    /**
+     * Checks that `a` has the bytes of `b` at `offset`
+     */
+    static boolean regionMatches(byte[] a, int offset, byte[] b) {
+        if(offset + b.length > a.length) {
+            return false;
+        }
+        for(int i = 0; i < b.length; i++) {
+            if(a[offset + i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,58 @@
+package org.eatbacon.query;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * Converts values into the native tuple types they are stored as. Documents are stored with the values
+ * Jackson produces for them, so the same conversions are applied to query values, which keeps index keys
+ * typed and in the same order as the values they hold
+ */
+public class Values {
+    private static final BigInteger MIN_LONG = BigInteger.valueOf(Long.MIN_VALUE);
+    private static final BigInteger MAX_LONG = BigInteger.valueOf(Long.MAX_VALUE);
+
+    private Values() {
+    }
+
+    /**
+     * Normalizes a value to the type used in keys. Integral numbers widen to `Long`, floating point numbers
+     * to `Double` and dates become epoch millis. Strings, booleans and byte arrays are kept as is, anything
+     * else is stored as its string form
+     *
+     * @param value
+     * @return
+     */
+    public static Object normalize(Object value) {
+        if(value == null || value instanceof String || value instanceof Long || value instanceof Double
+                || value instanceof Boolean || value instanceof byte[]) {
+            return value;
+        }
+        if(value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        }
+        if(value instanceof BigInteger) {
+            BigInteger big = (BigInteger) value;
+            return big.compareTo(MIN_LONG) >= 0 && big.compareTo(MAX_LONG) <= 0 ? (Object) big.longValue() : big;
+        }
+        if(value instanceof Float || value instanceof BigDecimal) {
+            return ((Number) value).doubleValue();
+        }
+        if(value instanceof Date) {
+            return ((Date) value).getTime();
+        }
+        if(value instanceof Calendar) {
+            return ((Calendar) value).getTimeInMillis();
+        }
+        if(value instanceof Enum) {
+            return ((Enum<?>) value).name();
+        }
+        if(value instanceof UUID || value instanceof Character) {
+            return value.toString();
+        }
+        return String.valueOf(value);
+    }
+}
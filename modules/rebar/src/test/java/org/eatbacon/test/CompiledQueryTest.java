@@ -0,0 +1,81 @@
+package org.eatbacon.test;
+
+import com.apple.foundationdb.subspace.Subspace;
+import com.apple.foundationdb.tuple.Tuple;
+import org.eatbacon.query.Filters;
+import org.eatbacon.query.Query;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+
+public class CompiledQueryTest {
+    private static final Subspace DOCS = new Subspace(Tuple.from("docs"));
+    private static final Tuple ID = Tuple.from("1001");
+
+    private static final List<Tuple> TUPLES = Arrays.asList(
+            Tuple.from("name", "Fred"),
+            Tuple.from("name", "Fred\u0000x"),
+            Tuple.from("name", "Frederick"),
+            Tuple.from("age", 9L),
+            Tuple.from("age", 10L),
+            Tuple.from("age", -3L),
+            Tuple.from("age", 1L << 40),
+            Tuple.from("score", 9.5),
+            Tuple.from("score", 10.0),
+            Tuple.from("score", 2.5f),
+            Tuple.from("active", true),
+            Tuple.from("address", "zip", "94022"),
+            Tuple.from("address", "state", "CA"),
+            Tuple.from("childNames", 0L, 12L),
+            Tuple.from("childNames", 1L, 15L),
+            Tuple.from("employer", "acme", "job", "developer"),
+            Tuple.from("employer", 3L, "job", "manager"),
+            Tuple.from("empty", -2L, null)
+    );
+
+    private static final List<Query> QUERIES = Arrays.asList(
+            Filters.eq("name", "Fred"),
+            Filters.eq("name", "Fre"),
+            Filters.eq("age", 10),
+            Filters.eq("age", 10.0),
+            Filters.eq("score", 10),
+            Filters.eq("score", 2.5),
+            Filters.eq("active", true),
+            Filters.eq("address", "zip", "94022"),
+            Filters.eq("address", "zip"),
+            Filters.eq("address", "CA"),
+            Filters.eq("childNames", "1", 15),
+            Filters.eq("employer", Query.WILDCARD, "job", "developer"),
+            Filters.eq("employer", Query.WILDCARD, "job", "manager"),
+            Filters.lt("age", 10),
+            Filters.lte("age", 10),
+            Filters.gt("age", 9),
+            Filters.gte("age", -3),
+            Filters.gt("age", 9.5),
+            Filters.lt("score", 10),
+            Filters.between("score", 2, 9.5),
+            Filters.between("name", "F", "Fred"),
+            Filters.gt("name", 5),
+            Filters.lt("active", 5),
+            Filters.gt("age", null),
+            Filters.in("age", Arrays.asList(9, 10.0, 11)),
+            Filters.in("name", Arrays.asList("Fred", "Bob"))
+    );
+
+    @Test
+    public void testMatchesLikeIsSatisfiedBy() {
+        int offset = DOCS.pack(ID).length;
+        for(Query query : QUERIES) {
+            for(Tuple tuple : TUPLES) {
+                byte[] key = DOCS.pack(ID.addAll(tuple.popBack()));
+                byte[] value = Tuple.from(tuple.get(tuple.size() - 1)).pack();
+
+                assertEquals(query.compile().matches(key, offset, value), query.isSatisfiedBy(tuple),
+                        query + " against " + tuple);
+            }
+        }
+    }
+}
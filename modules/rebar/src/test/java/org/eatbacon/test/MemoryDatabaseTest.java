@@ -0,0 +1,167 @@
+package org.eatbacon.test;
+
+import com.apple.foundationdb.Database;
+import com.apple.foundationdb.FDBException;
+import com.apple.foundationdb.KeySelector;
+import com.apple.foundationdb.KeyValue;
+import com.apple.foundationdb.MutationType;
+import com.apple.foundationdb.Transaction;
+import com.apple.foundationdb.subspace.Subspace;
+import com.apple.foundationdb.tuple.ByteArrayUtil;
+import com.apple.foundationdb.tuple.Tuple;
+import org.eatbacon.dao.DatabaseProvider;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertThrows;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+import static org.testng.Assert.fail;
+
+public class MemoryDatabaseTest {
+    private final Database db = DatabaseProvider.inMemory().getDatabase();
+
+    private static byte[] encode(long value) {
+        return ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(value).array();
+    }
+
+    private static long decode(byte[] value) {
+        return ByteBuffer.wrap(value).order(ByteOrder.LITTLE_ENDIAN).getLong();
+    }
+
+    private static List<String> keys(Subspace space, List<KeyValue> kvs) {
+        return kvs.stream().map(kv -> space.unpack(kv.getKey()).getString(0)).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testReadsSeeOwnWrites() {
+        Subspace space = new Subspace(Tuple.from("memory-ryw"));
+        db.run(tr -> {
+            for(String key : new String[]{"a", "b", "c", "d"}) {
+                tr.set(space.pack(key), Tuple.from(key).pack());
+            }
+            return null;
+        });
+
+        db.run(tr -> {
+            tr.clear(space.pack("b"), space.pack("d"));
+            tr.set(space.pack("bb"), Tuple.from("bb").pack());
+            tr.mutate(MutationType.ADD, space.pack("e"), encode(2));
+
+            assertEquals(keys(space, tr.getRange(space.range()).asList().join()), Arrays.asList("a", "bb", "d", "e"));
+            assertEquals(keys(space, tr.getRange(space.range(), 2, true).asList().join()), Arrays.asList("e", "d"));
+            assertNull(tr.get(space.pack("c")).join());
+            assertEquals(decode(tr.get(space.pack("e")).join()), 2);
+            assertEquals(space.unpack(tr.getKey(KeySelector.firstGreaterThan(space.pack("a"))).join()).getString(0),
+                    "bb");
+            assertEquals(space.unpack(tr.getKey(KeySelector.lastLessThan(space.pack("d"))).join()).getString(0),
+                    "bb");
+            return null;
+        });
+
+        // other transactions only see the writes once committed
+        assertEquals(keys(space, db.read(tr -> tr.getRange(space.range()).asList().join())),
+                Arrays.asList("a", "bb", "d", "e"));
+        db.run(tr -> {
+            tr.clear(space.range());
+            return null;
+        });
+    }
+
+    @Test
+    public void testConflictingCommitFails() {
+        byte[] key = Tuple.from("memory-conflict").pack();
+        Transaction first = db.createTransaction();
+        Transaction second = db.createTransaction();
+
+        assertNull(first.get(key).join());
+        assertNull(second.get(key).join());
+        first.set(key, encode(1));
+        second.set(key, encode(2));
+        first.commit().join();
+        try {
+            second.commit().join();
+            fail("expected a conflict");
+        }
+        catch (CompletionException e) {
+            assertEquals(((FDBException) e.getCause()).getCode(), 1020);
+        }
+
+        // a snapshot read doesn't conflict
+        Transaction third = db.createTransaction();
+        Transaction fourth = db.createTransaction();
+        assertEquals(decode(third.snapshot().get(key).join()), 1);
+        assertEquals(decode(fourth.get(key).join()), 1);
+        fourth.set(key, encode(4));
+        fourth.commit().join();
+        third.set(key, encode(3));
+        third.commit().join();
+        assertEquals(decode(db.read(tr -> tr.get(key).join())), 3);
+
+        db.run(tr -> {
+            tr.clear(key);
+            return null;
+        });
+    }
+
+    @Test
+    public void testRetryLoopSerializesWriters() {
+        byte[] counter = Tuple.from("memory-counter").pack();
+        byte[] atomic = Tuple.from("memory-atomic").pack();
+
+        // read-modify-write transactions conflict and are retried, atomic mutations never conflict
+        IntStream.range(0, 200).parallel().forEach(i -> db.run(tr -> {
+            byte[] value = tr.get(counter).join();
+            tr.set(counter, encode(value == null ? 1 : decode(value) + 1));
+            tr.mutate(MutationType.ADD, atomic, encode(1));
+            return null;
+        }));
+        assertEquals(decode(db.read(tr -> tr.get(counter).join())), 200);
+        assertEquals(decode(db.read(tr -> tr.get(atomic).join())), 200);
+
+        db.run(tr -> {
+            tr.clear(counter);
+            tr.clear(atomic);
+            return null;
+        });
+    }
+
+    @Test
+    public void testUnsupportedOperationsFail() {
+        byte[] key = Tuple.from("memory-unsupported").pack();
+        try (Transaction tr = db.createTransaction()) {
+            assertThrows(UnsupportedOperationException.class, () -> tr.mutate(MutationType.BIT_OR, key, encode(1)));
+            CompletionException e = expectThrows(CompletionException.class, () -> tr.watch(key).join());
+            assertTrue(e.getCause() instanceof UnsupportedOperationException);
+        }
+    }
+
+    @Test
+    public void testVersionstamps() {
+        byte[] key = Tuple.from("memory-versionstamp").pack();
+        byte[] previous = null;
+        for(int i = 0; i < 3; i++) {
+            byte[] versionstamp = db.run(tr -> {
+                tr.mutate(MutationType.SET_VERSIONSTAMPED_VALUE, key, new byte[14]);
+                return tr.getVersionstamp();
+            }).join();
+            assertEquals(db.read(tr -> tr.get(key).join()), versionstamp);
+            assertTrue(previous == null || ByteArrayUtil.compareUnsigned(versionstamp, previous) > 0);
+            previous = versionstamp;
+        }
+
+        db.run(tr -> {
+            tr.clear(key);
+            return null;
+        });
+    }
+}
@@ -1,17 +1,54 @@
 package org.eatbacon.test;
 
+import com.apple.foundationdb.Database;
+import com.apple.foundationdb.FDBException;
+import com.apple.foundationdb.MutationType;
+import com.apple.foundationdb.Transaction;
+import com.apple.foundationdb.tuple.Tuple;
+import org.eatbacon.dao.BulkInsertOptions;
+import org.eatbacon.dao.DatabaseProvider;
+import org.eatbacon.dao.DocumentCache;
+import org.eatbacon.dao.IdGenerator;
+import org.eatbacon.dao.IdGenerators;
+import org.eatbacon.dao.Page;
+import org.eatbacon.dao.TransactionProfile;
+import org.eatbacon.dao.TupleManager;
+import org.eatbacon.query.Filters;
+import org.eatbacon.query.Query;
+import org.eatbacon.test.impl.dao.CachedModelDao;
+import org.eatbacon.test.impl.dao.GroupCommitModelDao;
 import org.eatbacon.test.impl.dao.MyModelDao;
+import org.eatbacon.test.impl.dao.ReportingModelDao;
+import org.eatbacon.test.impl.dao.StreamModelDao;
 import org.eatbacon.test.impl.models.Address;
 import org.eatbacon.test.impl.models.MyModel;
+import org.eatbacon.test.impl.models.StreamModel;
 import org.eatbacon.query.Index;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertThrows;
 import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
 public class MyModelDaoTest {
     @Test
@@ -46,6 +83,414 @@ public class MyModelDaoTest {
         assertNotNull(existing);
     }
 
+    @Test
+    public void testFindByIds() {
+        MyModelDao dao = MyModelDao.getInstance();
+
+        dao.insert(new MyModel().id("multi-1").name("Multi").createdAt(new Date()));
+        dao.insert(new MyModel().id("multi-2").name("Multi").createdAt(new Date()));
+
+        List<MyModel> found = dao.findByIds(Arrays.asList("multi-2", "missing", "multi-1"));
+        assertEquals(found.size(), 2);
+        assertEquals(found.get(0).getId(), "multi-2");
+        assertEquals(found.get(1).getId(), "multi-1");
+    }
+
+    @Test
+    public void testFindByIdWithPaths() {
+        MyModelDao dao = MyModelDao.getInstance();
+
+        dao.insert(new MyModel()
+                .id("projected-1")
+                .name("Projected")
+                .createdAt(new Date())
+                .address(new Address()
+                        .city("Los Altos Hills")
+                        .zip("94022"))
+                .childNames(Arrays.asList(15, 16)));
+
+        MyModel projected = dao.findById("projected-1", "name", "address.zip", "childNames.1");
+        assertEquals(projected.getName(), "Projected");
+        assertEquals(projected.getAddress().getZip(), "94022");
+        assertNull(projected.getAddress().getCity());
+        assertNull(projected.getCreatedAt());
+        assertEquals(projected.getChildNames(), Arrays.asList(16));
+
+        assertNull(dao.findById("projected-missing", "name"));
+    }
+
+    @Test
+    public void testFindWithPaths() {
+        MyModelDao dao = MyModelDao.getInstance();
+
+        dao.insert(new MyModel()
+                .id("projected-2")
+                .name("Projection")
+                .createdAt(new Date())
+                .address(new Address().state("WA").zip("98101")));
+
+        // indexed and scanned queries project the same way
+        for(MyModel model : Arrays.asList(dao.find(Filters.eq("name", "Projection"), "address.zip").get(0),
+                dao.find(Filters.eq("address", "state", "WA"), "address.zip").get(0))) {
+            assertEquals(model.getAddress().getZip(), "98101");
+            assertNull(model.getAddress().getState());
+            assertNull(model.getName());
+        }
+    }
+
+    @Test
+    public void testUpdate() {
+        MyModelDao dao = MyModelDao.getInstance();
+
+        MyModel model = new MyModel()
+                .id("update-1")
+                .name("Before")
+                .createdAt(new Date())
+                .address(new Address().city("Los Altos Hills").zip("94022"))
+                .childNames(Arrays.asList(1, 2, 3));
+        dao.insert(model);
+
+        dao.update(model
+                .name("After")
+                .address(new Address().city("Los Altos Hills"))
+                .childNames(Arrays.asList(1)));
+
+        MyModel updated = dao.findById("update-1");
+        assertEquals(updated.getName(), "After");
+        assertNull(updated.getAddress().getZip());
+        assertEquals(updated.getChildNames(), Arrays.asList(1));
+
+        // the old index entries are gone with the old values
+        assertTrue(dao.findByName("Before").stream().noneMatch(found -> "update-1".equals(found.getId())));
+        assertTrue(dao.findByZip("94022").stream().noneMatch(found -> "update-1".equals(found.getId())));
+        assertTrue(dao.findByName("After").stream().anyMatch(found -> "update-1".equals(found.getId())));
+    }
+
+    @Test
+    public void testInsertReplacesIndexEntries() {
+        MyModelDao dao = MyModelDao.getInstance();
+
+        MyModel model = new MyModel()
+                .id("reinsert-1")
+                .name("Original")
+                .createdAt(new Date())
+                .address(new Address().city("Los Altos Hills").zip("94022-0002"));
+        dao.insert(model);
+        dao.insert(model.name("Replaced").address(new Address().city("Los Altos Hills").zip("94022-0003")));
+
+        assertTrue(dao.findByName("Original").stream().noneMatch(found -> "reinsert-1".equals(found.getId())));
+        assertTrue(dao.findByZip("94022-0002").stream().noneMatch(found -> "reinsert-1".equals(found.getId())));
+        assertTrue(dao.findByName("Replaced").stream().anyMatch(found -> "reinsert-1".equals(found.getId())));
+        assertTrue(dao.findByZip("94022-0003").stream().anyMatch(found -> "reinsert-1".equals(found.getId())));
+
+        // and so does a bulk insert
+        dao.insertAll(Collections.singletonList(model.name("Reloaded")));
+        assertTrue(dao.findByName("Replaced").stream().noneMatch(found -> "reinsert-1".equals(found.getId())));
+        assertTrue(dao.findByName("Reloaded").stream().anyMatch(found -> "reinsert-1".equals(found.getId())));
+    }
+
+    @Test
+    public void testAtomicMutations() {
+        MyModelDao dao = MyModelDao.getInstance();
+
+        MyModel model = new MyModel()
+                .id("counter-1")
+                .name("Counter")
+                .createdAt(new Date())
+                .childNames(Arrays.asList(10, 20, -5));
+        dao.insert(model);
+
+        dao.increment("counter-1", "childNames.0", 5);
+        dao.increment("counter-1", "childNames.0", 5);
+        dao.max("counter-1", "childNames.1", 25);
+        dao.min("counter-1", "childNames.2", -4);
+        dao.min("counter-1", "childNames.2", -7);
+        dao.increment("counter-1", "childNames.3", 3);
+        assertEquals(dao.findById("counter-1").getChildNames(), Arrays.asList(20, 25, -7, 3));
+        assertEquals(dao.findById("counter-1", "childNames.0").getChildNames(), Arrays.asList(20));
+
+        // written values replace the counters
+        dao.update(model.childNames(Arrays.asList(1, 2)));
+        assertEquals(dao.findById("counter-1").getChildNames(), Arrays.asList(1, 2));
+    }
+
+    @Test
+    public void testMixedAtomicMutations() {
+        MyModelDao dao = MyModelDao.getInstance();
+
+        MyModel model = new MyModel()
+                .id("counter-2")
+                .name("Counter")
+                .createdAt(new Date())
+                .address(new Address().city("Los Altos Hills"))
+                .childNames(Arrays.asList(5, 5));
+        dao.insert(model);
+
+        // a field takes one kind of mutation, as adds can't be ordered with a max or min
+        dao.max("counter-2", "childNames.0", 10);
+        assertThrows(IllegalArgumentException.class, () -> dao.increment("counter-2", "childNames.0", 1));
+        dao.min("counter-2", "childNames.1", 3);
+        assertThrows(IllegalArgumentException.class, () -> dao.max("counter-2", "childNames.1", 7));
+        assertEquals(dao.findById("counter-2").getChildNames(), Arrays.asList(10, 3));
+
+        // only integers can be mutated
+        assertThrows(IllegalArgumentException.class, () -> dao.increment("counter-2", "address.city", 1));
+        assertThrows(IllegalArgumentException.class, () -> dao.increment("counter-2", "address", 1));
+        assertEquals(dao.findById("counter-2").getAddress().getCity(), "Los Altos Hills");
+
+        Database db = DatabaseProvider.getDefault().getDatabase();
+        TupleManager md = TupleManager.getInstance(Priced.class, "_id");
+        Map<Object, Object> doc = new HashMap<>();
+        doc.put("_id", "counter-3");
+        doc.put("price", 2.5);
+        md.insertDoc(db, doc);
+        assertThrows(IllegalArgumentException.class,
+                () -> md.mutate(db, "counter-3", Tuple.from("price"), MutationType.ADD, 1));
+        assertEquals(((Map<?, ?>) md.getDoc(db, "counter-3")).get("price"), 2.5);
+
+        // writing the field replaces its counter, after which it takes another kind
+        dao.update(model.childNames(Arrays.asList(5, 5)));
+        dao.increment("counter-2", "childNames.0", 1);
+        assertEquals(dao.findById("counter-2").getChildNames(), Arrays.asList(6, 5));
+    }
+
+    @Test
+    public void testAtomicMutationsDontConflict() {
+        Database db = DatabaseProvider.getDefault().getDatabase();
+        TupleManager md = TupleManager.getInstance(Priced.class, "_id");
+        Map<Object, Object> doc = new HashMap<>();
+        doc.put("_id", "counter-4");
+        doc.put("name", "Before");
+        doc.put("views", 1);
+        md.insertDoc(db, doc);
+
+        // writes of the document, even of the field itself, commit while the mutation is in flight
+        try(Transaction tr = db.createTransaction()) {
+            md.mutate(tr, "counter-4", Tuple.from("views"), MutationType.ADD, 2);
+            doc.put("name", "After");
+            doc.put("views", 10);
+            md.updateDoc(db, doc);
+            md.mutate(db, "counter-4", Tuple.from("best"), MutationType.MAX, 7);
+            tr.commit().join();
+        }
+
+        Map<?, ?> stored = (Map<?, ?>) md.getDoc(db, "counter-4");
+        assertEquals(stored.get("name"), "After");
+        assertEquals(((Number) stored.get("views")).longValue(), 12);
+        assertEquals(((Number) stored.get("best")).longValue(), 7);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testAtomicMutationOnIndexedPath() {
+        MyModelDao.getInstance().increment("counter-1", "name", 1);
+    }
+
+    @Test
+    public void testDelete() {
+        MyModelDao dao = MyModelDao.getInstance();
+
+        dao.insert(new MyModel().id("delete-1").name("Deleted").createdAt(new Date()));
+        assertTrue(dao.delete("delete-1"));
+        assertNull(dao.findById("delete-1"));
+        assertTrue(dao.findByName("Deleted").isEmpty());
+        assertFalse(dao.delete("delete-1"));
+    }
+
+    @Test
+    public void testDeleteWhere() {
+        MyModelDao dao = MyModelDao.getInstance();
+
+        for(int i = 0; i < 5; i++) {
+            dao.insert(new MyModel()
+                    .id("delete-where-" + i)
+                    .name("DeleteWhere")
+                    .createdAt(new Date())
+                    .address(new Address().state("DW")));
+        }
+
+        // one query by index, one by scan
+        assertEquals(dao.deleteWhere(Filters.eq("address", "state", "DW")), 5);
+        assertTrue(dao.findByName("DeleteWhere").isEmpty());
+        assertEquals(dao.deleteWhere(Filters.eq("name", "DeleteWhere")), 0);
+    }
+
+    @Test
+    public void testInsertAll() {
+        MyModelDao dao = MyModelDao.getInstance();
+
+        List<MyModel> models = new ArrayList<>();
+        for(int i = 0; i < 50; i++) {
+            models.add(new MyModel()
+                    .id("insert-all-" + i)
+                    .name("InsertAll")
+                    .createdAt(new Date())
+                    .address(new Address().state("IA").zip("50309")));
+        }
+
+        // small batches, so several are committed at once
+        List<Integer> batches = Collections.synchronizedList(new ArrayList<>());
+        long inserted = dao.insertAll(models.stream(), new BulkInsertOptions()
+                .maxBatchKeys(40)
+                .maxInFlight(3)
+                .listener((documents, bytes, total) -> batches.add(documents)));
+
+        assertEquals(inserted, 50);
+        assertTrue(batches.size() > 1);
+        assertEquals(batches.stream().mapToInt(Integer::intValue).sum(), 50);
+        // each document writes its fields, its id and two index entries, so five fit in 40 keys
+        assertTrue(batches.stream().allMatch(documents -> documents <= 5));
+        assertEquals(dao.findByName("InsertAll").size(), 50);
+        assertEquals(dao.deleteWhere(Filters.eq("name", "InsertAll")), 50);
+    }
+
+    @Test
+    public void testAsync() throws Exception {
+        MyModelDao dao = MyModelDao.getInstance();
+
+        String id = dao.insertAsync(new MyModel()
+                .name("Async")
+                .createdAt(new Date())
+                .address(new Address().state("AS")))
+                .get(5, TimeUnit.SECONDS);
+        assertNotNull(id);
+
+        MyModel found = dao.findByIdAsync(id).get(5, TimeUnit.SECONDS);
+        assertNotNull(found);
+        assertEquals(found.getName(), "Async");
+        assertNull(dao.findByIdAsync("not-there").get(5, TimeUnit.SECONDS));
+
+        // one query by index, one by scan
+        assertEquals(dao.findAsync(Filters.eq("name", "Async")).get(5, TimeUnit.SECONDS).size(), 1);
+        assertEquals(dao.findAsync(Filters.eq("address", "state", "AS")).get(5, TimeUnit.SECONDS).size(), 1);
+        assertEquals(dao.findAllAsync().get(5, TimeUnit.SECONDS).size(), dao.findAll().size());
+        assertTrue(dao.delete(id));
+    }
+
+    @Test
+    public void testDocumentCache() {
+        CachedModelDao dao = CachedModelDao.getInstance();
+        DocumentCache cache = dao.getCache();
+        dao.insert(new MyModel()
+                .id("cached")
+                .name("Cached")
+                .createdAt(new Date()));
+
+        long hits = cache.getHitCount();
+        long misses = cache.getMissCount();
+        assertEquals(dao.findById("cached").getName(), "Cached");
+        assertEquals(dao.findById("cached").getName(), "Cached");
+        assertEquals(cache.getMissCount(), misses + 1);
+        assertEquals(cache.getHitCount(), hits + 1);
+
+        // a write through another DAO is seen through the version key
+        MyModelDao.getInstance().update(dao.findById("cached").name("Changed"));
+        assertEquals(dao.findById("cached").getName(), "Changed");
+
+        // objects handed out are copies
+        dao.findById("cached").setName("Local");
+        assertEquals(dao.findById("cached").getName(), "Changed");
+
+        // bulk writes and async inserts through the DAO evict right away, before the next version check
+        assertEquals(dao.insertAll(Collections.singletonList(dao.findById("cached").name("Bulk"))), 1);
+        assertEquals(cache.size(), 0);
+        assertEquals(dao.findById("cached").getName(), "Bulk");
+        dao.insertAsync(dao.findById("cached").name("Async")).join();
+        assertEquals(cache.size(), 0);
+        assertEquals(dao.findById("cached").getName(), "Async");
+        assertEquals(dao.deleteWhere(Filters.eq("name", "Async")), 1);
+        assertEquals(cache.size(), 0);
+        assertNull(dao.findById("cached"));
+    }
+
+    @Test
+    public void testCacheSeesWritersWithoutCache() {
+        CachedModelDao dao = CachedModelDao.getInstance();
+        dao.insert(new MyModel()
+                .id("cached-remote")
+                .name("Cached")
+                .createdAt(new Date()));
+        assertEquals(dao.findById("cached-remote").getName(), "Cached");
+
+        // another node, which has no cached DAO of the collection
+        Database db = DatabaseProvider.getDefault().getDatabase();
+        TupleManager otherNode = new TupleManager(MyModel.class, "_id") {};
+        @SuppressWarnings("unchecked")
+        Map<Object, Object> doc = (Map<Object, Object>) otherNode.getDoc(db, "cached-remote");
+        doc.put("name", "Remote");
+        otherNode.updateDoc(db, doc);
+
+        assertEquals(dao.findById("cached-remote").getName(), "Remote");
+    }
+
+    @Test
+    public void testIdGenerators() {
+        MyModelDao.getInstance();
+        Database db = DatabaseProvider.getDefault().getDatabase();
+        TupleManager md = TupleManager.getInstance(MyModel.class, "_id");
+
+        // small blocks, so the block strategies lease several
+        for(IdGenerator generator : Arrays.asList(IdGenerators.random(md), IdGenerators.versionstamp(md, 3),
+                IdGenerators.leased(md, 3), IdGenerators.timeOrdered())) {
+            List<String> ids = new ArrayList<>();
+            for(int i = 0; i < 10; i++) {
+                ids.add(db.run(tr -> generator.newId(tr).join()));
+            }
+            assertEquals(new HashSet<>(ids).size(), 10);
+            // batches are sized with the longest id
+            assertTrue(ids.stream().allMatch(id -> id.length() <= generator.getMaxLength()));
+        }
+
+        // time-ordered ids start with the epoch millis
+        String id = IdGenerators.timeOrdered().newId(null).join();
+        assertTrue(Math.abs(Long.parseLong(id.substring(0, 12), 16) - System.currentTimeMillis()) < 60000);
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        GroupCommitModelDao dao = GroupCommitModelDao.getInstance();
+
+        List<CompletableFuture<String>> inserts = new ArrayList<>();
+        for(int i = 0; i < 40; i++) {
+            inserts.add(dao.insertAsync(new MyModel()
+                    .id(i % 2 == 0 ? "group-commit-" + i : null)
+                    .name("GroupCommit")
+                    .createdAt(new Date())));
+        }
+        Set<String> ids = new HashSet<>();
+        for(CompletableFuture<String> insert : inserts) {
+            ids.add(insert.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(ids.size(), 40);
+        assertTrue(ids.contains("group-commit-0"));
+
+        // blocking writes from several threads share transactions too
+        IntStream.range(0, 8).parallel().forEach(i ->
+                dao.update(dao.findById("group-commit-" + (i * 2)).name("GroupCommitted")));
+        assertEquals(dao.findByName("GroupCommitted").size(), 8);
+
+        assertEquals(dao.deleteWhere(Filters.in("name", Arrays.asList("GroupCommit", "GroupCommitted"))), 40);
+    }
+
+    @Test
+    public void testTransactionProfile() throws Exception {
+        ReportingModelDao dao = ReportingModelDao.getInstance();
+
+        dao.insert(new MyModel().id("profiled").name("Profiled").createdAt(new Date()));
+        assertEquals(MyModelDao.getInstance().findById("profiled").getName(), "Profiled");
+
+        // a cached read version may predate the insert until it expires
+        Thread.sleep(100);
+        assertEquals(dao.findAll().stream().filter(model -> "profiled".equals(model.getId())).count(), 1);
+        assertEquals(dao.findAllAsync().get(10, TimeUnit.SECONDS).stream()
+                .filter(model -> "profiled".equals(model.getId())).count(), 1);
+
+        assertTrue(dao.delete("profiled"));
+        assertNull(MyModelDao.getInstance().findById("profiled"));
+
+        // a cached read version must stay well within the five seconds it can be used for
+        assertThrows(IllegalArgumentException.class, () -> new TransactionProfile().readVersionCache(5000));
+    }
+
     @Test
     public void testFindWithNoMatch() {
         MyModelDao dao = MyModelDao.getInstance();
@@ -62,6 +507,92 @@ public class MyModelDaoTest {
         assertTrue(multi.size() > 0);
     }
 
+    @Test
+    public void testStreamAll() {
+        MyModelDao dao = MyModelDao.getInstance();
+
+        dao.insert(new MyModel()
+                .id("1003")
+                .name("Stream")
+                .createdAt(new Date())
+                .childNames(Arrays.asList(1, 2)));
+
+        long count = dao.streamAll().count();
+        assertTrue(count > 0);
+        assertTrue(dao.streamAll().anyMatch(model -> "1003".equals(model.getId())));
+    }
+
+    @Test
+    public void testStreamAllAcrossBatches() {
+        StreamModelDao dao = StreamModelDao.getInstance();
+
+        // each document is several key-values, so most are cut off by a batch of 7 and continued by the next
+        for(int i = 0; i < 40; i++) {
+            StreamModel model = new StreamModel();
+            model.id("stream-" + i)
+                    .name("Stream")
+                    .createdAt(new Date())
+                    .childNames(Arrays.asList(i, i + 1, i + 2));
+            dao.insert(model);
+        }
+
+        List<String> ids = dao.streamAll().map(MyModel::getId).collect(Collectors.toList());
+        assertEquals(ids.size(), 40);
+        assertEquals(new HashSet<>(ids).size(), 40);
+        assertTrue(dao.streamAll().allMatch(model -> model.getChildNames().size() == 3));
+    }
+
+    @Test
+    public void testFindAllPaged() {
+        MyModelDao dao = MyModelDao.getInstance();
+
+        for(int i = 0; i < 5; i++) {
+            dao.insert(new MyModel()
+                    .id("paged-" + i)
+                    .name("Paged")
+                    .createdAt(new Date()));
+        }
+
+        Set<String> ids = new HashSet<>();
+        Page<MyModel> page = dao.findAll(2, null);
+        while(true) {
+            assertTrue(page.getItems().size() <= 2);
+            page.getItems().forEach(model -> assertTrue(ids.add(model.getId())));
+            if(!page.hasMore()) {
+                break;
+            }
+            page = dao.findAll(2, page.getContinuation());
+        }
+        assertEquals(ids.size(), dao.findAll().size());
+
+        Page<MyModel> paged = dao.find(Filters.eq("name", "Paged"), 3, null);
+        assertEquals(paged.getItems().size(), 3);
+        assertTrue(paged.hasMore());
+    }
+
+    @Test
+    public void testFindAllParallel() {
+        MyModelDao dao = MyModelDao.getInstance();
+
+        for(int i = 0; i < 20; i++) {
+            dao.insert(new MyModel()
+                    .id("parallel-" + i)
+                    .name("Parallel")
+                    .createdAt(new Date())
+                    .childNames(Arrays.asList(i, i + 1)));
+        }
+
+        List<String> sequential = dao.findAll().stream().map(MyModel::getId).collect(Collectors.toList());
+        List<String> parallel = dao.findAllParallel().stream().map(MyModel::getId).collect(Collectors.toList());
+        assertEquals(parallel, sequential);
+
+        assertEquals(dao.findParallel(Filters.eq("name", "Parallel")).size(), 20);
+
+        Set<String> ids = ConcurrentHashMap.newKeySet();
+        dao.forEachParallel(Filters.eq("name", "Parallel"), model -> assertTrue(ids.add(model.getId())));
+        assertEquals(ids.size(), 20);
+    }
+
     @Test
     public void testFindByName() {
         MyModelDao dao = MyModelDao.getInstance();
@@ -114,8 +645,9 @@ public class MyModelDaoTest {
                 ).childNames(Arrays.asList(15, 16));
         dao.insert(model);
 
+        // the zip is shared with other documents, all of which are in the index
         List<MyModel> filtered = dao.findByZip("94022-1993");
-        assertTrue(filtered.size() == 1);
+        assertTrue(filtered.stream().anyMatch(item -> "1005".equals(item.getId())));
 
         filtered = dao.findByState("CA");
         assertTrue(filtered.size() >= 1);
@@ -124,6 +656,133 @@ public class MyModelDaoTest {
         assertTrue(filtered.size() == 0);
     }
 
+    @Test
+    public void testIndexHoldsEveryMatchingDocument() {
+        MyModelDao dao = MyModelDao.getInstance();
+
+        for(String id : Arrays.asList("1007", "1008")) {
+            dao.insert(new MyModel()
+                    .id(id)
+                    .name("Shared")
+                    .createdAt(new Date())
+                    .address(new Address()
+                            .city("Los Altos Hills")
+                            .state("CA")
+                            .zip("94022-0001")));
+        }
+
+        List<MyModel> filtered = dao.findByZip("94022-0001");
+        assertEquals(filtered.size(), 2);
+    }
+
+    @Test
+    public void testFindByIndexedRange() {
+        MyModelDao dao = MyModelDao.getInstance();
+
+        for(String name : Arrays.asList("Range-A", "Range-B", "Range-C")) {
+            dao.insert(new MyModel()
+                    .id(name)
+                    .name(name)
+                    .createdAt(new Date()));
+        }
+
+        assertEquals(dao.find(Filters.between("name", "Range-A", "Range-B")).size(), 2);
+        assertEquals(dao.find(Filters.gt("name", "Range-A")).stream()
+                .filter(model -> model.getName().startsWith("Range-")).count(), 2);
+        assertEquals(dao.find(Filters.in("name", Arrays.asList("Range-A", "Range-C", "Range-Z"))).size(), 2);
+    }
+
+    // keys a collection of Maps, whose fields can hold any type
+    private static class Priced {
+    }
+
+    @Test
+    public void testIndexedAndScannedNumbersMatch() {
+        Database db = DatabaseProvider.getDefault().getDatabase();
+        TupleManager md = TupleManager.getInstance(Priced.class, "_id");
+        Index index = new Index("price");
+        md.ensureIndex(db, index);
+        while(!md.buildIndex(db, index, 100)) {
+            // indexes the documents of earlier runs
+        }
+
+        Object[] prices = {1, 2.5, 3, 3.0, 10, 10.0, -2, -1.5, 10.5, "10", true, Long.MAX_VALUE};
+        for(int i = 0; i < prices.length; i++) {
+            Map<Object, Object> doc = new HashMap<>();
+            doc.put("_id", "priced-" + i);
+            doc.put("price", prices[i]);
+            md.insertDoc(db, doc);
+        }
+
+        List<Query> queries = Arrays.asList(Filters.eq("price", 10), Filters.eq("price", 10.0),
+                Filters.eq("price", 2.5), Filters.in("price", Arrays.asList(3, 10.5)), Filters.lt("price", 10),
+                Filters.lte("price", 10), Filters.gt("price", 2.5), Filters.gte("price", -1.5),
+                Filters.between("price", -2, 10.0), Filters.between("price", -1.9, 3.5), Filters.lt("price", 1e300),
+                Filters.gt("price", Double.NEGATIVE_INFINITY), Filters.gte("price", "1"), Filters.lt("price", true),
+                Filters.between("price", 1, "9"));
+        for(Query query : queries) {
+            Set<Object> indexed = md.getIdsFromIndex(db, query).stream().map(id -> id.get(0))
+                    .collect(Collectors.toSet());
+            Set<Object> scanned = md.streamByQuery(db, query, 100).map(doc -> ((Map<?, ?>) doc).get("_id"))
+                    .collect(Collectors.toSet());
+            assertEquals(indexed, scanned, query.toString());
+        }
+        assertEquals(md.getIdsFromIndex(db, Filters.eq("price", 10)).size(), 2);
+        assertEquals(md.getIdsFromIndex(db, Filters.lt("price", 10)).size(), 6);
+    }
+
+    // keys a collection of Maps for index definition tests
+    private static class Tagged {
+    }
+
+    @Test
+    public void testIndexChangeConflictsWithWrites() {
+        Database db = DatabaseProvider.getDefault().getDatabase();
+        TupleManager md = TupleManager.getInstance(Tagged.class, "_id");
+        Map<Object, Object> doc = new HashMap<>();
+        doc.put("_id", "tagged");
+
+        // the index states are cached by the first write, and the next one still checks them
+        md.insertDoc(db, doc);
+
+        // a write which started before the index was defined can't commit without its entry
+        String tag = "tag-" + System.nanoTime();
+        doc.put(tag, "red");
+        Transaction tr = db.createTransaction();
+        md.insertDoc(tr, doc);
+        md.ensureIndex(db, new Index(tag));
+        try {
+            tr.commit().join();
+            fail("expected a conflict");
+        }
+        catch (CompletionException e) {
+            assertEquals(((FDBException) e.getCause()).getCode(), 1020);
+        }
+        finally {
+            tr.close();
+        }
+
+        md.insertDoc(db, doc);
+        assertEquals(md.getIdsFromIndex(db, Filters.eq(tag, "red")).size(), 1);
+    }
+
+    @Test
+    public void testFindByDateRange() {
+        MyModelDao dao = MyModelDao.getInstance();
+
+        Date createdAt = new Date();
+        dao.insert(new MyModel()
+                .id("1009")
+                .name("Dated")
+                .createdAt(createdAt));
+
+        List<MyModel> filtered = dao.find(Filters.between("createdAt", createdAt, new Date(createdAt.getTime() + 1)));
+        assertTrue(filtered.stream().anyMatch(model -> "1009".equals(model.getId())));
+
+        filtered = dao.find(Filters.gt("createdAt", createdAt));
+        assertTrue(filtered.stream().noneMatch(model -> "1009".equals(model.getId())));
+    }
+
     @Test
     public void testFindByNonIndexedValue() {
         MyModelDao dao = MyModelDao.getInstance();
@@ -151,4 +810,23 @@ public class MyModelDaoTest {
     public void testCreateIndexes() {
         MyModelDao.getInstance().ensureIndex(new Index("name"));
     }
+
+    @Test
+    public void testBuildIndexOnExistingDocuments() throws Exception {
+        MyModelDao dao = MyModelDao.getInstance();
+
+        dao.insert(new MyModel()
+                .id("1010")
+                .name("Backfill")
+                .createdAt(new Date())
+                .address(new Address()
+                        .city("Backfill City")
+                        .state("CA")));
+
+        dao.ensureIndex(new Index("address", "city")).get(30, TimeUnit.SECONDS);
+
+        List<MyModel> filtered = dao.find(Filters.eq("address", "city", "Backfill City"));
+        assertEquals(filtered.size(), 1);
+        assertEquals(filtered.get(0).getId(), "1010");
+    }
 }
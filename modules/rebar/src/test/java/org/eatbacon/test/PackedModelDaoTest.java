@@ -0,0 +1,93 @@
+package org.eatbacon.test;
+
+import org.eatbacon.query.Filters;
+import org.eatbacon.test.impl.dao.PackedModelDao;
+import org.eatbacon.test.impl.models.Address;
+import org.eatbacon.test.impl.models.PackedModel;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+
+public class PackedModelDaoTest {
+    @Test
+    public void testFindById() {
+        PackedModelDao dao = PackedModelDao.getInstance();
+
+        PackedModel model = new PackedModel();
+        model.id("packed-1")
+                .name("Packed")
+                .createdAt(new Date())
+                .address(new Address()
+                        .city("Los Altos Hills")
+                        .state("CA")
+                        .zip("94022"))
+                .childNames(Arrays.asList(15, 16));
+        dao.insert(model);
+
+        PackedModel existing = dao.findById("packed-1");
+        assertNotNull(existing);
+        assertEquals(existing.getAddress().getZip(), "94022");
+        assertEquals(existing.getChildNames(), Arrays.asList(15, 16));
+    }
+
+    @Test
+    public void testLargeDocumentIsChunked() {
+        PackedModelDao dao = PackedModelDao.getInstance();
+
+        // random enough to stay over the value size limit when compressed
+        StringBuilder name = new StringBuilder();
+        while(name.length() < 400000) {
+            name.append(UUID.randomUUID());
+        }
+        PackedModel model = new PackedModel();
+        model.id("packed-2").name(name.toString()).createdAt(new Date());
+        dao.insert(model);
+
+        assertEquals(dao.findById("packed-2").getName(), name.toString());
+
+        // a smaller version replaces every chunk of the larger one
+        model.name("Small");
+        dao.insert(model);
+        assertEquals(dao.findById("packed-2").getName(), "Small");
+    }
+
+    @Test
+    public void testFind() {
+        PackedModelDao dao = PackedModelDao.getInstance();
+
+        PackedModel model = new PackedModel();
+        model.id("packed-3")
+                .name("Query")
+                .createdAt(new Date())
+                .address(new Address().state("NV"));
+        dao.insert(model);
+
+        List<PackedModel> byIndex = dao.find(Filters.eq("name", "Query"));
+        assertTrue(byIndex.stream().anyMatch(found -> "packed-3".equals(found.getId())));
+
+        List<PackedModel> byScan = dao.find(Filters.eq("address", "state", "NV"));
+        assertTrue(byScan.stream().anyMatch(found -> "packed-3".equals(found.getId())));
+
+        assertTrue(dao.findAll().stream().anyMatch(found -> "packed-3".equals(found.getId())));
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testDaosMustAgreeOnStorage() {
+        PackedModelDao.getInstance();
+
+        // the collection is already packed and compressed
+        new PackedModelDao() {
+            @Override
+            protected boolean isCompressed() {
+                return false;
+            }
+        };
+    }
+}
@@ -0,0 +1,133 @@
+package org.eatbacon.test;
+
+import com.apple.foundationdb.tuple.Tuple;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.swagger.util.Json;
+import org.eatbacon.dao.PojoCodec;
+import org.eatbacon.query.Values;
+import org.eatbacon.test.impl.models.Address;
+import org.eatbacon.test.impl.models.MyModel;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+public class PojoCodecTest {
+    private static final ObjectMapper MAPPER = Json.mapper().copy()
+            .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, true);
+
+    private static MyModel newModel() {
+        return new MyModel()
+                .id("1001")
+                .name("Tony")
+                .createdAt(new Date(1500000000000L))
+                .address(new Address()
+                        .street("12345 El Monte Blvd")
+                        .state("CA")
+                        .zip("94022"))
+                .childNames(Arrays.asList(12, 15));
+    }
+
+    @Test
+    public void testEncodeMatchesMapPath() {
+        PojoCodec codec = PojoCodec.forClass(MyModel.class, MAPPER);
+        assertNotNull(codec);
+
+        for(MyModel model : Arrays.asList(newModel(), new MyModel().id("1002"),
+                new MyModel().id("1003").address(new Address()).childNames(new ArrayList<>()))) {
+            List<Tuple> expected = new ArrayList<>();
+            flatten(MAPPER.convertValue(model, Map.class), new Tuple(), expected);
+            assertEquals(new HashSet<>(codec.encode(model)), new HashSet<>(expected));
+        }
+    }
+
+    @Test
+    public void testDecode() {
+        PojoCodec codec = PojoCodec.forClass(MyModel.class, MAPPER);
+        MyModel model = newModel();
+
+        // documents are read in key order, and hold the unique id as an extra field
+        List<Tuple> tuples = new ArrayList<>(codec.encode(model));
+        tuples.add(Tuple.from("_id", model.getId()));
+        tuples.sort(Tuple::compareTo);
+
+        MyModel decoded = (MyModel) codec.decode(tuples);
+        assertEquals(MAPPER.convertValue(decoded, Map.class), MAPPER.convertValue(model, Map.class));
+    }
+
+    @Test
+    public void testDecodeEmptyValues() {
+        PojoCodec codec = PojoCodec.forClass(MyModel.class, MAPPER);
+
+        MyModel decoded = (MyModel) codec.decode(Arrays.asList(
+                Tuple.from("address", -2L, null),
+                Tuple.from("childNames", -1L, null),
+                Tuple.from("id", "1004")));
+        assertNotNull(decoded.getAddress());
+        assertNull(decoded.getAddress().getZip());
+        assertEquals(decoded.getChildNames(), Collections.emptyList());
+    }
+
+    @Test
+    public void testDecodeFallsBackOnOtherTypes() {
+        PojoCodec codec = PojoCodec.forClass(MyModel.class, MAPPER);
+
+        // dates stored as text are left to the mapper
+        assertNull(codec.decode(Arrays.asList(
+                Tuple.from("createdAt", "2017-07-14T02:40:00.000+0000"),
+                Tuple.from("id", "1005"))));
+    }
+
+    @Test
+    public void testAnnotatedClassHasNoCodec() {
+        assertNull(PojoCodec.forClass(Annotated.class, MAPPER));
+    }
+
+    public static class Annotated {
+        private String name;
+
+        @JsonProperty("full_name")
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+
+    // the layout TupleManager stores Maps with
+    @SuppressWarnings("unchecked")
+    private static void flatten(Object value, Tuple path, List<Tuple> output) {
+        if(value instanceof Map) {
+            Map<Object, Object> map = (Map<Object, Object>) value;
+            if(map.isEmpty()) {
+                output.add(path.add(-2L).addObject(null));
+            }
+            map.forEach((key, item) -> flatten(item, path.addObject(key), output));
+        }
+        else if(value instanceof List) {
+            List<Object> list = (List<Object>) value;
+            if(list.isEmpty()) {
+                output.add(path.add(-1L).addObject(null));
+            }
+            for(int i = 0; i < list.size(); i++) {
+                flatten(list.get(i), path.add(i), output);
+            }
+        }
+        else {
+            output.add(path.addObject(Values.normalize(value)));
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package org.eatbacon.test;
+
+import com.apple.foundationdb.tuple.ByteArrayUtil;
+import com.apple.foundationdb.tuple.Tuple;
+import org.eatbacon.query.Filters;
+import org.eatbacon.query.Query;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class QueryTest {
+    @Test
+    public void testEquality() {
+        Query query = Filters.eq("address", "zip", "94022");
+
+        assertTrue(query.isSatisfiedBy(Tuple.from("address", "zip", "94022")));
+        assertFalse(query.isSatisfiedBy(Tuple.from("address", "zip", "94023")));
+        assertFalse(query.isSatisfiedBy(Tuple.from("address", "state", "94022")));
+        assertFalse(query.isSatisfiedBy(Tuple.from("address", "zip")));
+    }
+
+    @Test
+    public void testWildcard() {
+        Query query = Filters.eq("employer", Query.WILDCARD, "job", "developer");
+
+        assertTrue(query.isSatisfiedBy(Tuple.from("employer", "acme", "job", "developer")));
+        assertFalse(query.isSatisfiedBy(Tuple.from("employer", "acme", "job", "manager")));
+    }
+
+    @Test
+    public void testRanges() {
+        assertTrue(Filters.lt("age", 10).isSatisfiedBy(Tuple.from("age", 9L)));
+        assertFalse(Filters.lt("age", 10).isSatisfiedBy(Tuple.from("age", 10L)));
+        assertTrue(Filters.lte("age", 10).isSatisfiedBy(Tuple.from("age", 10L)));
+        assertTrue(Filters.gt("age", 10).isSatisfiedBy(Tuple.from("age", 11L)));
+        assertFalse(Filters.gt("age", 10).isSatisfiedBy(Tuple.from("age", 10L)));
+        assertTrue(Filters.gte("age", 10).isSatisfiedBy(Tuple.from("age", 10L)));
+        assertTrue(Filters.gt("score", 1.5).isSatisfiedBy(Tuple.from("score", 2L)));
+
+        Query between = Filters.between("name", "B", "D");
+        assertTrue(between.isSatisfiedBy(Tuple.from("name", "B")));
+        assertTrue(between.isSatisfiedBy(Tuple.from("name", "Chris")));
+        assertTrue(between.isSatisfiedBy(Tuple.from("name", "D")));
+        assertFalse(between.isSatisfiedBy(Tuple.from("name", "Dan")));
+    }
+
+    @Test
+    public void testRangeOnOtherType() {
+        assertFalse(Filters.gt("age", 10).isSatisfiedBy(Tuple.from("age", "eleven")));
+        assertFalse(Filters.lt("age", 10).isSatisfiedBy(Tuple.from("age", "nine")));
+    }
+
+    @Test
+    public void testIndexKeysKeepValueOrder() {
+        byte[] nine = Filters.eq("age", 9).build().pack();
+        byte[] ten = Filters.eq("age", 10L).build().pack();
+        assertTrue(ByteArrayUtil.compareUnsigned(nine, ten) < 0);
+
+        byte[] small = Filters.eq("score", 2.5f).build().pack();
+        byte[] large = Filters.eq("score", 10.0).build().pack();
+        assertTrue(ByteArrayUtil.compareUnsigned(small, large) < 0);
+    }
+
+    @Test
+    public void testValuesAreWidened() {
+        assertEquals(Filters.eq("age", 10).build(), Filters.eq("age", 10L).build());
+        assertEquals(Filters.eq("score", 2.5f).build(), Filters.eq("score", 2.5).build());
+        assertTrue(Filters.eq("age", 10L).isSatisfiedBy(Tuple.from("age", 10)));
+
+        Date date = new Date();
+        assertEquals(Filters.eq("createdAt", date).build(), Tuple.from("createdAt", date.getTime()));
+        assertTrue(Filters.lt("createdAt", date).isSatisfiedBy(Tuple.from("createdAt", date.getTime() - 1)));
+    }
+
+    @Test
+    public void testIn() {
+        Query query = Filters.in("address", "state", Arrays.asList("CA", "NV"));
+
+        assertTrue(query.isSatisfiedBy(Tuple.from("address", "state", "NV")));
+        assertFalse(query.isSatisfiedBy(Tuple.from("address", "state", "OR")));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInRequiresCollection() {
+        Filters.in("address", "state", "CA");
+    }
+}
@@ -0,0 +1,60 @@
+package org.eatbacon.test;
+
+import com.apple.foundationdb.subspace.Subspace;
+import com.apple.foundationdb.tuple.Tuple;
+import org.eatbacon.query.TupleBytes;
+import org.testng.annotations.Test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.testng.Assert.assertEquals;
+
+public class TupleBytesTest {
+    private static final Subspace DOCS = new Subspace(Tuple.from("docs"));
+    private static final Tuple ID = Tuple.from("1001");
+
+    private static final List<Tuple> TUPLES = Arrays.asList(
+            Tuple.from("name", "Fred"),
+            Tuple.from("name", "Fred\u0000x"),
+            Tuple.from("age", -3L),
+            Tuple.from("age", 1L << 40),
+            Tuple.from("big", new BigInteger("123456789012345678901234567890")),
+            Tuple.from("score", 9.5),
+            Tuple.from("score", 2.5f),
+            Tuple.from("active", true),
+            Tuple.from("missing", null),
+            Tuple.from("id", UUID.fromString("7159ead6-f8a7-40db-9406-be4b064939d0")),
+            Tuple.from("bytes", new byte[]{0, 1, 0}),
+            Tuple.from("address", "zip", "94022"),
+            Tuple.from("childNames", 0L, 12L),
+            Tuple.from("empty", -2L, null),
+            Tuple.from("value")
+    );
+
+    @Test
+    public void testSplitMatchesPackingSeparately() {
+        // documents are written with the packed path after the id prefix, and the packed value
+        for(Tuple t : TUPLES) {
+            byte[] packed = t.pack();
+            int split = TupleBytes.lastElementStart(packed);
+
+            byte[] key = DOCS.pack(ID.addAll(t.popBack()));
+            byte[] prefix = DOCS.pack(ID);
+            byte[] joined = Arrays.copyOf(prefix, prefix.length + split);
+            System.arraycopy(packed, 0, joined, prefix.length, split);
+
+            assertEquals(joined, key, t.toString());
+            assertEquals(Arrays.copyOfRange(packed, split, packed.length), Tuple.from(t.get(t.size() - 1)).pack());
+        }
+    }
+
+    @Test
+    public void testLastElementStartOfUnsupportedTuples() {
+        assertEquals(TupleBytes.lastElementStart(new byte[0]), -1);
+        // nested tuples are not skipped
+        assertEquals(TupleBytes.lastElementStart(Tuple.from("a", Tuple.from("b")).pack()), -1);
+    }
+}
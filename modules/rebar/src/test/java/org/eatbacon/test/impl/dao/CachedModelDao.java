@@ -0,0 +1,17 @@
+package org.eatbacon.test.impl.dao;
+
+import org.eatbacon.dao.DocumentCache;
+
+// reads the same collection as MyModelDao through a document cache
+public class CachedModelDao extends MyModelDao {
+    private static CachedModelDao INSTANCE = new CachedModelDao();
+
+    public static CachedModelDao getInstance() {
+        return INSTANCE;
+    }
+
+    @Override
+    protected DocumentCache createCache() {
+        return new DocumentCache(100, 1024 * 1024);
+    }
+}
@@ -0,0 +1,21 @@
+package org.eatbacon.test.impl.dao;
+
+import org.eatbacon.dao.GroupCommitOptions;
+
+import java.util.concurrent.TimeUnit;
+
+// writes the same collection as MyModelDao with group commit
+public class GroupCommitModelDao extends MyModelDao {
+    private static GroupCommitModelDao INSTANCE = new GroupCommitModelDao();
+
+    public static GroupCommitModelDao getInstance() {
+        return INSTANCE;
+    }
+
+    @Override
+    protected GroupCommitOptions getGroupCommitOptions() {
+        return new GroupCommitOptions()
+                .window(5, TimeUnit.MILLISECONDS)
+                .maxBatchSize(16);
+    }
+}
@@ -0,0 +1,46 @@
+package org.eatbacon.test.impl.dao;
+
+import org.eatbacon.dao.AbstractDao;
+import org.eatbacon.dao.StorageMode;
+import org.eatbacon.query.Index;
+import org.eatbacon.test.impl.models.PackedModel;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class PackedModelDao extends AbstractDao<PackedModel> {
+    private static PackedModelDao INSTANCE = new PackedModelDao();
+
+    @Override
+    protected List<Index> getIndexes() {
+        return Arrays.asList(new Index("name"));
+    }
+
+    @Override
+    protected StorageMode getStorageMode() {
+        return StorageMode.PACKED;
+    }
+
+    @Override
+    protected boolean isCompressed() {
+        return true;
+    }
+
+    public static PackedModelDao getInstance() {
+        return INSTANCE;
+    }
+
+    protected PackedModelDao() {
+        super();
+    }
+
+    @Override
+    protected Class<?> getObjectClass() {
+        return PackedModel.class;
+    }
+
+    @Override
+    protected String getUniqueId(PackedModel obj) {
+        return obj.getId();
+    }
+}
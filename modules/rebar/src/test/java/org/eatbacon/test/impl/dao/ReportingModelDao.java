@@ -0,0 +1,22 @@
+package org.eatbacon.test.impl.dao;
+
+import org.eatbacon.dao.TransactionProfile;
+
+// reads the same collection as MyModelDao at batch priority, with snapshot scans and cached read versions
+public class ReportingModelDao extends MyModelDao {
+    private static ReportingModelDao INSTANCE = new ReportingModelDao();
+
+    public static ReportingModelDao getInstance() {
+        return INSTANCE;
+    }
+
+    @Override
+    protected TransactionProfile getTransactionProfile() {
+        return new TransactionProfile()
+                .priority(TransactionProfile.Priority.BATCH)
+                .timeout(10000)
+                .retryLimit(20)
+                .snapshotScans(true)
+                .readVersionCache(50);
+    }
+}
@@ -0,0 +1,28 @@
+package org.eatbacon.test.impl.dao;
+
+import org.eatbacon.dao.AbstractDao;
+import org.eatbacon.test.impl.models.StreamModel;
+
+// scans in batches far smaller than a document set, so documents are split across batches
+public class StreamModelDao extends AbstractDao<StreamModel> {
+    private static StreamModelDao INSTANCE = new StreamModelDao();
+
+    public static StreamModelDao getInstance() {
+        return INSTANCE;
+    }
+
+    protected StreamModelDao() {
+        super();
+        scanBatchSize = 7;
+    }
+
+    @Override
+    protected Class<?> getObjectClass() {
+        return StreamModel.class;
+    }
+
+    @Override
+    protected String getUniqueId(StreamModel obj) {
+        return obj.getId();
+    }
+}
@@ -0,0 +1,7 @@
+package org.eatbacon.test.impl.models;
+
+/**
+ * Same fields as `MyModel`, stored in its own collection with the packed layout
+ */
+public class PackedModel extends MyModel {
+}
@@ -0,0 +1,7 @@
+package org.eatbacon.test.impl.models;
+
+/**
+ * Same fields as `MyModel`, stored in its own collection so scans can count it exactly
+ */
+public class StreamModel extends MyModel {
+}